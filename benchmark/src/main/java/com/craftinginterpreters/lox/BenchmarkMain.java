@@ -0,0 +1,18 @@
+package com.craftinginterpreters.lox;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+// Entry point of benchmarks.jar: the usual JMH command line, with the GC
+// profiler always on so every result comes with its allocation rate.
+public class BenchmarkMain {
+    public static void main(String[] args) throws Exception
+    {
+        new Runner(new OptionsBuilder()
+            .parent(new CommandLineOptions(args))
+            .addProfiler(GCProfiler.class)
+            .build()).run();
+    }
+}
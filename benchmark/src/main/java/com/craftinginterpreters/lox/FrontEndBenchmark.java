@@ -0,0 +1,68 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.craftinginterpreters.tool.GenerateWorkload;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Scanner.scanTokens, Parser.parse and Resolver.resolve on their own, each
+// fed the previous stage's output for a program from GenerateWorkload of
+// the given shape and size.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FrontEndBenchmark {
+    @Param({"mixed"})
+    public String shape;
+
+    @Param({"16KB", "1MB"})
+    public String size;
+
+    private String source;
+    private List<Token> tokens;
+    private List<Stmt> statements;
+    private Interpreter interpreter;
+
+    @Setup
+    public void setup()
+    {
+        source = GenerateWorkload.generate(shape, (int)GenerateWorkload.parseSize(size), 16);
+        tokens = new Scanner(source).scanTokens();
+        statements = new Parser(tokens).parse();
+        interpreter = new Interpreter();
+    }
+
+    @Benchmark
+    public List<Token> scan()
+    {
+        return new Scanner(source).scanTokens();
+    }
+
+    @Benchmark
+    public List<Stmt> parse()
+    {
+        return new Parser(tokens).parse();
+    }
+
+    @Benchmark
+    public List<Stmt> resolve()
+    {
+        new Resolver(interpreter).resolve(statements);
+        return statements;
+    }
+}
@@ -0,0 +1,75 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+
+import com.craftinginterpreters.tool.GenerateWorkload;
+
+// Times each phase (Scanner, Parser, Resolver, Interpreter) on generated
+// programs that quadruple in size from 1KB up to the given maximum, and
+// prints nanoseconds per source byte so a phase that scales worse than
+// linearly stands out as a rising column. Sizes past a few hundred
+// megabytes need a heap to match (-Xmx); a Java string tops out below 2GB.
+//
+// Usage: PhaseScaling [shape|all] [maxSize] [depth]
+public class PhaseScaling {
+    public static void main(String[] args)
+    {
+        String shape = args.length > 0 ? args[0] : "all";
+        long maxSize = args.length > 1 ? GenerateWorkload.parseSize(args[1]) : 16L << 20;
+        int depth = args.length > 2 ? Integer.parseInt(args[2]) : 16;
+        String[] shapes = shape.equals("all") ? GenerateWorkload.SHAPES : new String[] { shape };
+
+        System.out.printf("%-10s %12s %10s %10s %10s %10s %12s%n",
+            "shape", "bytes", "scan", "parse", "resolve", "interpret", "ns/byte");
+        for (String name : shapes)
+        {
+            for (long size = 1 << 10; size <= maxSize; size *= 4)
+            {
+                String source = GenerateWorkload.generate(name, (int)size, depth);
+                // Small programs are repeated so the timer has something to
+                // measure; the first pass of each size warms up.
+                int runs = (int)Math.max(1, Math.min(50, (4L << 20) / size));
+                long[] nanos = new long[4];
+                for (int i = 0; i <= runs; i++)
+                {
+                    long[] pass = time(source);
+                    if (i == 0) continue;
+                    for (int phase = 0; phase < 4; phase++) nanos[phase] += pass[phase];
+                }
+
+                long total = 0;
+                for (int phase = 0; phase < 4; phase++)
+                {
+                    nanos[phase] /= runs;
+                    total += nanos[phase];
+                }
+                System.out.printf("%-10s %12d %10.3f %10.3f %10.3f %10.3f %12.1f%n",
+                    name, source.length(), nanos[0] / 1e6, nanos[1] / 1e6, nanos[2] / 1e6,
+                    nanos[3] / 1e6, total / (double)source.length());
+            }
+        }
+    }
+
+    private static long[] time(String source)
+    {
+        long[] nanos = new long[4];
+        long start = System.nanoTime();
+        List<Token> tokens = new Scanner(source).scanTokens();
+        nanos[0] = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        List<Stmt> statements = new Parser(tokens).parse();
+        nanos[1] = System.nanoTime() - start;
+
+        Interpreter interpreter = new Interpreter(
+            new OutputBuffer(WorkloadBenchmark.DISCARD, OutputBuffer.DEFAULT_CAPACITY));
+        start = System.nanoTime();
+        new Resolver(interpreter).resolve(statements);
+        nanos[2] = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        interpreter.run(statements);
+        nanos[3] = System.nanoTime() - start;
+        return nanos;
+    }
+}
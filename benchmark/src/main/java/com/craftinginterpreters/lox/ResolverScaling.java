@@ -0,0 +1,55 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+
+// Times Resolver.resolve on generated programs with deep block nesting and
+// many locals per scope. Each block declares its locals and then reads
+// variables declared in the outermost and innermost enclosing scopes, so
+// the cost of a reference is visible as nesting grows.
+//
+// Usage: ResolverScaling [maxDepth] [localsPerScope]
+public class ResolverScaling {
+    public static void main(String[] args)
+    {
+        int maxDepth = args.length > 0 ? Integer.parseInt(args[0]) : 512;
+        int locals = args.length > 1 ? Integer.parseInt(args[1]) : 32;
+
+        System.out.printf("%8s %8s %12s %12s %14s%n", "depth", "locals", "references", "ms", "ns/reference");
+        for (int depth = 8; depth <= maxDepth; depth *= 2)
+        {
+            int references = depth * locals * 2;
+            String source = generate(depth, locals);
+            List<Stmt> statements = new Parser(new Scanner(source).scanTokens()).parse();
+
+            // Warm up before timing.
+            for (int i = 0; i < 5; i++) new Resolver(new Interpreter()).resolve(statements);
+
+            int runs = 10;
+            long start = System.nanoTime();
+            for (int i = 0; i < runs; i++) new Resolver(new Interpreter()).resolve(statements);
+            double elapsed = (System.nanoTime() - start) / (double)runs;
+
+            System.out.printf("%8d %8d %12d %12.3f %14.1f%n",
+                depth, locals, references, elapsed / 1e6, elapsed / references);
+        }
+    }
+
+    static String generate(int depth, int locals)
+    {
+        StringBuilder source = new StringBuilder();
+        source.append("fun outer() {\n");
+        for (int d = 0; d < depth; d++)
+        {
+            source.append("{\n");
+            for (int l = 0; l < locals; l++)
+            {
+                source.append("var v").append(d).append('_').append(l).append(" = ");
+                source.append(d == 0 ? "0" : "v0_" + l + " + v" + (d - 1) + "_" + l);
+                source.append(";\n");
+            }
+        }
+        for (int d = 0; d < depth; d++) source.append("}\n");
+        source.append("}\n");
+        return source.toString();
+    }
+}
@@ -0,0 +1,77 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Runs one of the standard Lox workloads (src/main/resources/workloads)
+// per invocation in a fresh interpreter. The script is scanned, parsed
+// and resolved once in setup, so only execution is measured.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WorkloadBenchmark {
+    @Param({"fib", "binary_trees", "method_call", "instantiation", "string_equality",
+            "properties", "closures", "zoo"})
+    public String workload;
+
+    private List<Stmt> statements;
+
+    @Setup
+    public void setup() throws IOException
+    {
+        String source = load("/workloads/" + workload + ".lox");
+        statements = new Parser(new Scanner(source).scanTokens()).parse();
+        new Resolver(new Interpreter()).resolve(statements);
+    }
+
+    @Benchmark
+    public Object run()
+    {
+        return new Interpreter(new OutputBuffer(DISCARD, OutputBuffer.DEFAULT_CAPACITY)).run(statements);
+    }
+
+    static String load(String resource) throws IOException
+    {
+        try (InputStream in = WorkloadBenchmark.class.getResourceAsStream(resource))
+        {
+            if (in == null) throw new IOException("No workload " + resource);
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    static final WritableByteChannel DISCARD = new WritableByteChannel() {
+        @Override
+        public int write(ByteBuffer src)
+        {
+            int n = src.remaining();
+            src.position(src.limit());
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() { return true; }
+
+        @Override
+        public void close() {}
+    };
+}
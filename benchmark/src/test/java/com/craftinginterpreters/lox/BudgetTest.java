@@ -0,0 +1,73 @@
+package com.craftinginterpreters.lox;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import javax.script.ScriptException;
+import org.junit.jupiter.api.Test;
+
+class BudgetTest
+{
+    @Test
+    void stepLimitIsExactOnOneThread()
+    {
+        Budget.Meter meter = new Budget.Meter(new Budget(2000, 0, 0));
+        for (int i = 0; i < 2000; i++) meter.tick(null);
+        assertThrows(BudgetExceeded.class, () -> meter.tick(null));
+    }
+
+    @Test
+    void forksShareStepsAndBytes()
+    {
+        Budget.Meter meter = new Budget.Meter(new Budget(3000, 0, 0, 1000));
+        Budget.Meter fork = meter.fork();
+        for (int i = 0; i < 1500; i++) meter.tick(null);
+        for (int i = 0; i < 900; i++) fork.tick(null);
+        assertThrows(BudgetExceeded.class, () -> {
+            for (int i = 0; i < 1000; i++) fork.tick(null);
+        });
+
+        fork.allocate(null, 600);
+        assertEquals(600, meter.bytes.get());
+        assertThrows(BudgetExceeded.class, () -> meter.allocate(null, 600));
+    }
+
+    // Each thread stays well under the limit; together they don't.
+    @Test
+    void spawnedThreadsCountAgainstTheRun()
+    {
+        LoxScriptEngine engine = (LoxScriptEngine)new LoxScriptEngineFactory().getScriptEngine();
+        engine.setBudget(new Budget(20000, 0, 0));
+        assertThrows(ScriptException.class, () -> engine.eval(
+            "fun work() { for (var i = 0; i < 6000; i = i + 1) {} }\n" +
+            "var a = spawn(work); var b = spawn(work); var c = spawn(work); var d = spawn(work);\n" +
+            "join(a); join(b); join(c); join(d);"));
+    }
+
+    private static long allocated(String source)
+    {
+        Interpreter interpreter = new Interpreter();
+        interpreter.setBudget(new Budget(0, 0, 0));
+        List<Stmt> statements = ParallelParser.parse(source);
+        new Resolver(interpreter).resolve(statements);
+        interpreter.run(statements);
+        return interpreter.allocatedBytes();
+    }
+
+    // Each script differs from its baseline only by the allocation under
+    // test, so the difference is what that allocation was charged.
+    @Test
+    void hiddenAllocationsAreCharged()
+    {
+        String setup = "class A { m() {} } var a = A(); var m = map(); m[1] = 1; var xs = [1, 2, 3];\n";
+        long base = allocated(setup);
+        assertEquals(Budget.Meter.BOUND_METHOD, allocated(setup + "a.m;") - base);
+        assertEquals(Budget.Meter.ARRAY + Budget.Meter.ELEMENT, allocated(setup + "keys(m);") - base);
+        assertEquals(Budget.Meter.ARRAY + Budget.Meter.ELEMENT, allocated(setup + "values(m);") - base);
+        assertTrue(allocated(setup + "xs[0] = \"x\";") - base >= Budget.Meter.ARRAY + 3 * Budget.Meter.BOXED);
+        long entries = allocated(setup + "for (var i = 2; i < 100; i = i + 1) m[i] = i;") - base;
+        assertTrue(entries > 98 * Budget.Meter.ENTRY + 128 * Budget.Meter.MAP_SLOT, "" + entries);
+    }
+}
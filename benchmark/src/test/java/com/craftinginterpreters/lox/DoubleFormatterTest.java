@@ -0,0 +1,56 @@
+package com.craftinginterpreters.lox;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class DoubleFormatterTest
+{
+    @Test
+    void smallIntegersHaveNoFraction()
+    {
+        assertEquals("0", DoubleFormatter.format(0.0));
+        assertEquals("-0", DoubleFormatter.format(-0.0));
+        assertEquals("42", DoubleFormatter.format(42.0));
+        assertEquals("-9999999", DoubleFormatter.format(-9999999.0));
+    }
+
+    // Double.toString on JDK 17 prints these with more digits than needed.
+    @Test
+    void shortestWhereJdk17IsNot()
+    {
+        assertEquals("1.0E23", DoubleFormatter.format(1e23));
+        assertEquals("1.0E23", DoubleFormatter.format(100000000000000000000000.0));
+        assertEquals("2.0E23", DoubleFormatter.format(2e23));
+        assertEquals("8.41E21", DoubleFormatter.format(8.41e21));
+        assertEquals("4.9E-324", DoubleFormatter.format(Double.MIN_VALUE));
+    }
+
+    @Test
+    void layoutMatchesDoubleToString()
+    {
+        assertEquals("0.1", DoubleFormatter.format(0.1));
+        assertEquals("0.001", DoubleFormatter.format(0.001));
+        assertEquals("1.0E-4", DoubleFormatter.format(1e-4));
+        assertEquals("123.456", DoubleFormatter.format(123.456));
+        assertEquals("9999999.5", DoubleFormatter.format(9999999.5));
+        assertEquals("1.0E7", DoubleFormatter.format(1e7));
+        assertEquals("-2.5E10", DoubleFormatter.format(-2.5e10));
+        assertEquals("1.7976931348623157E308", DoubleFormatter.format(Double.MAX_VALUE));
+        assertEquals("NaN", DoubleFormatter.format(Double.NaN));
+        assertEquals("-Infinity", DoubleFormatter.format(Double.NEGATIVE_INFINITY));
+    }
+
+    @Test
+    void randomValuesRoundTrip()
+    {
+        Random random = new Random(1);
+        for (int i = 0; i < 100_000; i++)
+        {
+            double number = Double.longBitsToDouble(random.nextLong());
+            if (Double.isNaN(number)) continue;
+            assertEquals(number, Double.parseDouble(DoubleFormatter.format(number)));
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.craftinginterpreters.lox;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class GlobalEnvironmentTest
+{
+    private static Interpreter run(Interpreter interpreter, String source)
+    {
+        List<Stmt> statements = ParallelParser.parse(source);
+        new Resolver(interpreter).resolve(statements);
+        interpreter.interpret(statements);
+        return interpreter;
+    }
+
+    @Test
+    void namesStayWithTheirProgram()
+    {
+        run(new Interpreter(), "var onlyHere = 1;");
+        Interpreter other = run(new Interpreter(), "var elsewhere = 2;");
+        assertEquals(0, other.globals.slots.find("onlyHere"));
+    }
+
+    private static GlobalImage prelude(String source)
+    {
+        return GlobalImage.of(source, (line, where, message) -> { throw new AssertionError(message); });
+    }
+
+    // The prelude's function is resolved once, against the prelude's
+    // table, and then runs in programs whose tables grew differently.
+    @Test
+    void preludeCodeFindsEachProgramsGlobals()
+    {
+        GlobalImage prelude = prelude("fun greet() { return greeting; }");
+        Interpreter first = run(new Interpreter(prelude, OutputBuffer.stdout()),
+            "var a = 1; var b = 2; var greeting = \"one\"; var said = greet();");
+        Interpreter second = run(new Interpreter(prelude, OutputBuffer.stdout()),
+            "var greeting = \"two\"; var said = greet();");
+        assertEquals("one", first.globals.values().get("said"));
+        assertEquals("two", second.globals.values().get("said"));
+    }
+
+    // Tenants share whatever the prelude's globals point at, so anything
+    // they could change in place is refused.
+    @Test
+    void preludeMayNotShareMutableState()
+    {
+        prelude("class Base { hi() { return \"hi\"; } }\n" +
+                "class Derived < Base { hi() { return super.hi(); } }\n" +
+                "fun twice(f) { return fun (x) { return f(f(x)); }; }\n" +
+                "var name = \"lox\"; var size = len;");
+
+        assertThrows(IllegalArgumentException.class, () -> prelude("class P {} var shared = P();"));
+        assertThrows(IllegalArgumentException.class, () -> prelude("var cache = map();"));
+        assertThrows(IllegalArgumentException.class, () -> prelude("var list = [1, 2];"));
+        assertThrows(IllegalArgumentException.class, () -> prelude(
+            "fun make() { var n = 0; fun inc() { n = n + 1; return n; } return inc; }\n" +
+            "var counter = make();"));
+        assertThrows(IllegalArgumentException.class, () -> prelude(
+            "class P { m() {} } var p = P(); var bound = p.m;"));
+    }
+}
@@ -0,0 +1,87 @@
+package com.craftinginterpreters.lox;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.InvalidClassException;
+import java.io.NotSerializableException;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class HeapImageTest
+{
+    @TempDir
+    Path dir;
+
+    private static Interpreter run(Interpreter interpreter, String source)
+    {
+        List<Stmt> statements = ParallelParser.parse(source);
+        new Resolver(interpreter).resolve(statements);
+        interpreter.interpret(statements);
+        return interpreter;
+    }
+
+    // Java serialization recursed once per node and overflowed the stack
+    // on lists a few hundred long, on both snapshot and resume.
+    @Test
+    void longInstanceChainRoundTrips() throws Exception
+    {
+        Interpreter before = run(new Interpreter(),
+            "class Node { init(v, next) { this.v = v; this.next = next; } }\n" +
+            "var head = Node(0, 0);\n" +
+            "for (var i = 1; i < 50000; i = i + 1) head = Node(i, head);\n" +
+            "fun counter() { var c = 0; fun inc() { c = c + 1; return c; } return inc; }\n" +
+            "var inc = counter();\n" +
+            "var table = map(); table[\"head\"] = head; table[2] = [1, \"two\", head];\n" +
+            "var size = len;\n");
+        Path image = dir.resolve("heap.img");
+        HeapImage.write(before, image);
+
+        Interpreter after = new Interpreter();
+        HeapImage.read(after, image);
+        run(after,
+            "var total = 0; var n = head;\n" +
+            "for (var i = 0; i < 50000; i = i + 1) { total = total + n.v; n = n.next; }\n" +
+            "inc(); var count = inc();\n" +
+            "var same = table[2][2].v - table[\"head\"].v;\n" +
+            "var length = size(table[2]);\n");
+        Map<String, Object> globals = after.globals.values();
+        assertEquals(1249975000.0, globals.get("total"));
+        assertEquals(2.0, globals.get("count"));
+        assertEquals(0.0, globals.get("same"));
+        assertEquals(3.0, globals.get("length"));
+    }
+
+    @Test
+    void unsavableValueLeavesNoFile() throws Exception
+    {
+        Interpreter interpreter = run(new Interpreter(), "fun f() { return 1; } var t = spawn(f); join(t);");
+        Path image = dir.resolve("heap.img");
+        assertThrows(NotSerializableException.class, () -> HeapImage.write(interpreter, image));
+        assertFalse(Files.exists(image));
+    }
+
+    // Only AST classes may come out of the image's object stream.
+    @Test
+    void foreignClassesAreRejected() throws Exception
+    {
+        Path image = dir.resolve("heap.img");
+        try (ObjectOutputStream out = new ObjectOutputStream(Files.newOutputStream(image)))
+        {
+            out.writeInt(0x4c4f5848);
+            out.writeInt(3);
+            out.writeInt(0);
+            // A lambda record whose declaration is not AST.
+            out.writeByte(3);
+            out.writeObject(new HashMap<String, String>());
+        }
+        assertThrows(InvalidClassException.class, () -> HeapImage.read(new Interpreter(), image));
+    }
+}
@@ -0,0 +1,85 @@
+package com.craftinginterpreters.lox;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class LoxCliTest
+{
+    @TempDir
+    Path dir;
+
+    private String stderr;
+
+    // Runs jlox in its own JVM, since it reports through System.exit.
+    private int jlox(String... args) throws Exception
+    {
+        return jlox(List.of(), args);
+    }
+
+    private int jlox(List<String> properties, String... args) throws Exception
+    {
+        List<String> command = new ArrayList<>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(properties);
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add("com.craftinginterpreters.lox.Lox");
+        command.addAll(Arrays.asList(args));
+        File err = dir.resolve("stderr").toFile();
+        Process process = new ProcessBuilder(command)
+            .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+            .redirectError(err)
+            .start();
+        int status = process.waitFor();
+        stderr = Files.readString(err.toPath(), StandardCharsets.UTF_8);
+        return status;
+    }
+
+    private Path script(String source) throws Exception
+    {
+        return Files.writeString(dir.resolve("script.lox"), source);
+    }
+
+    // A spawned thread nobody joins can fail after the main script has
+    // returned; the run waits for it and still exits 70.
+    @Test
+    void unjoinedFailureAfterMainFailsTheRun() throws Exception
+    {
+        Path script = script(
+            "fun late() { for (var i = 0; i < 200000; i = i + 1) {} return nil.x; }\n" +
+            "spawn(late);\n" +
+            "print \"main done\";\n");
+        assertEquals(70, jlox(script.toString()));
+        assertTrue(stderr.contains("Only instances have properties."), stderr);
+    }
+
+    @Test
+    void batchReportsTheBudgetStack() throws Exception
+    {
+        Path script = script(
+            "fun spin() { while (true) {} }\n" +
+            "fun outer() { spin(); }\n" +
+            "outer();\n");
+        assertEquals(70, jlox(List.of("-Djlox.budget.steps=10000"), "--batch", script.toString()));
+        assertTrue(stderr.contains("Step budget of 10000 exceeded.\nline["), stderr);
+        assertTrue(stderr.contains("\n  in spin:0\n  in outer:1\n  in <script>\n"), stderr);
+    }
+
+    @Test
+    void batchRejectsABadJobCount() throws Exception
+    {
+        Path script = script("print 1;\n");
+        assertEquals(64, jlox("--batch", "--jobs", "abc", script.toString()));
+        assertTrue(stderr.startsWith("Usage: jlox --batch"), stderr);
+    }
+}
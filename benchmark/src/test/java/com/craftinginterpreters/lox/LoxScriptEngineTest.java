@@ -0,0 +1,94 @@
+package com.craftinginterpreters.lox;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import javax.management.ObjectName;
+import javax.script.ScriptException;
+import org.junit.jupiter.api.Test;
+
+class LoxScriptEngineTest
+{
+    private static LoxScriptEngine engine()
+    {
+        return (LoxScriptEngine)new LoxScriptEngineFactory().getScriptEngine();
+    }
+
+    @Test
+    void runtimeErrorKeepsItsLine()
+    {
+        ScriptException error = assertThrows(ScriptException.class,
+            () -> engine().eval("var a = 1;\nprint a + \"x\" - 1;"));
+        assertEquals(1, error.getLineNumber());
+    }
+
+    // The block's environment is charged before the script passes any
+    // check, so the budget error has no token to report a line from.
+    @Test
+    void budgetErrorWithoutToken()
+    {
+        LoxScriptEngine engine = engine();
+        engine.setBudget(new Budget(0, 0, 0, 1));
+        ScriptException error = assertThrows(ScriptException.class,
+            () -> engine.eval("{ var a = 1; }"));
+        BudgetExceeded cause = assertInstanceOf(BudgetExceeded.class, error.getCause());
+        assertNull(cause.token);
+        assertEquals(-1, error.getLineNumber());
+    }
+
+    // The build runs tests with -Djlox.jmx=true, so every compiled script's
+    // interpreter registers an MBean.
+    @Test
+    void evalLeavesNoMBeansBehind() throws Exception
+    {
+        assertTrue(InterpreterMetrics.AUTO);
+        ObjectName pattern = new ObjectName("com.craftinginterpreters.lox:type=Interpreter,*");
+        LoxScriptEngine engine = engine();
+        engine.eval("var warm = 1;");
+        int before = ManagementFactory.getPlatformMBeanServer().queryNames(pattern, null).size();
+        for (int i = 0; i < 500; i++)
+        {
+            engine.eval("var a = " + i + "; a = a + 1;");
+            assertThrows(ScriptException.class, () -> engine.eval("return 1;"));
+        }
+        int after = ManagementFactory.getPlatformMBeanServer().queryNames(pattern, null).size();
+        assertEquals(before, after);
+    }
+
+    // The output buffer hands over 8192 bytes at a time; the two bytes of
+    // the accented letter land on either side of that boundary.
+    @Test
+    void multibyteCharacterAcrossBuffers() throws Exception
+    {
+        assumeTrue(Charset.defaultCharset().equals(StandardCharsets.UTF_8));
+        LoxScriptEngine engine = engine();
+        StringWriter writer = new StringWriter();
+        engine.getContext().setWriter(writer);
+        String text = "a".repeat(8191) + "\u00e9" + "z";
+        engine.eval("print \"" + text + "\";");
+        assertEquals(text + "\n", writer.toString());
+    }
+
+    // A failed thread nobody joined fails its own eval, not the CLI's
+    // static status.
+    @Test
+    void unjoinedThreadFailureFailsTheEval()
+    {
+        LoxScriptEngine engine = engine();
+        ScriptException error = assertThrows(ScriptException.class, () -> engine.eval(
+            "fun late() { for (var i = 0; i < 20000; i = i + 1) {} return nil.x; }\n" +
+            "spawn(late); spawn(late);"));
+        assertTrue(error.getMessage().contains("Only instances have properties."), error.getMessage());
+        assertEquals(1, error.getSuppressed().length);
+        assertFalse(Lox.hadRuntimeError);
+    }
+}
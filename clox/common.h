@@ -6,10 +6,13 @@
 #include <stdint.h>
 
 #define NAN_BOXING
+// Build with -DNDEBUG for a quiet, timing-friendly VM.
+#ifndef NDEBUG
 #define DEBUG_PRINT_CODE
 #define DEBUG_TRACE_EXECUTION
 #define DEBUG_STRESS_GC
 #define DEBUG_LOG_GC
+#endif
 
 #define UINT8_COUNT (UINT8_MAX + 1)
 
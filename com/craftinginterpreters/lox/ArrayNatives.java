@@ -0,0 +1,59 @@
+package com.craftinginterpreters.lox;
+
+// Natives for working with arrays: array(n) makes n zeros, push and pop
+// grow and shrink them, and fill, copy and sort work in bulk.
+final class ArrayNatives {
+    private ArrayNatives() {}
+
+    @Native
+    static LoxArray array(Interpreter interpreter, double length)
+    {
+        if (length < 0 || length != (int)length)
+        {
+            throw new RunTimeError(null, "Array length must be a non-negative integer.");
+        }
+        interpreter.allocate(Budget.Meter.ARRAY + (long)length * Budget.Meter.ELEMENT);
+        return new LoxArray((int)length);
+    }
+
+    @Native
+    static void push(Interpreter interpreter, LoxArray array, Object value)
+    {
+        interpreter.allocate(Budget.Meter.ELEMENT);
+        boolean numeric = array.isNumeric();
+        array.push(value);
+        if (numeric && !array.isNumeric()) interpreter.allocate(array.widenedBytes());
+    }
+
+    @Native
+    static Object pop(LoxArray array)
+    {
+        return array.pop(null);
+    }
+
+    @Native
+    static void fill(Interpreter interpreter, LoxArray array, Object value)
+    {
+        boolean numeric = array.isNumeric();
+        array.fill(value);
+        if (numeric && !array.isNumeric()) interpreter.allocate(array.widenedBytes());
+    }
+
+    @Native
+    static void copy(Interpreter interpreter, LoxArray src, double from, LoxArray dst, double to, double count)
+    {
+        if (from != (int)from || to != (int)to || count != (int)count)
+        {
+            throw new RunTimeError(null, "Copy positions must be integers.");
+        }
+        boolean numeric = dst.isNumeric();
+        LoxArray.copy(null, src, (int)from, dst, (int)to, (int)count);
+        if (numeric && !dst.isNumeric()) interpreter.allocate(dst.widenedBytes());
+    }
+
+    @Native
+    static void sort(LoxArray array)
+    {
+        array.sort(null);
+    }
+}
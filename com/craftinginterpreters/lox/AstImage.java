@@ -0,0 +1,740 @@
+package com.craftinginterpreters.lox;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// A scanned, parsed and resolved program saved to disk, so a later launch
+// can go straight to interpreting it. Nodes are written depth first as a
+// one byte tag followed by their fields, with each Expr's resolved scope
+// distance. Strings go through a table so every distinct lexeme is stored
+// once. Global slot caches are not saved; they fill in again on first use.
+public class AstImage {
+    private static final int MAGIC = 0x4c4f5849;
+    private static final int VERSION = 4;
+
+    private static final int NULL = 0;
+    // Statements.
+    private static final int EXPRESSION = 1, PRINT = 2, VAR = 3, BLOCK = 4, IF = 5, WHILE = 6,
+        FOR = 7, BREAK = 8, CONTINUE = 9, FUNCTION = 10, RETURN = 11, CLASS = 12;
+    // Expressions.
+    private static final int BINARY = 20, GROUPING = 21, UNARY = 22, LITERAL = 23, TERNARY = 24,
+        VARIABLE = 25, ASSIGN = 26, LOGICAL = 27, CALL = 28, LAMBDA = 29, GET = 30, SET = 31,
+        THIS = 32, SUPER = 33, ARRAY = 34, INDEX = 35, INDEX_SET = 36;
+    // Literal values.
+    private static final int NIL = 0, FALSE = 1, TRUE = 2, NUMBER = 3, STRING = 4;
+
+    private static final TokenType[] tokenTypes = TokenType.values();
+
+    // Runtime classes a script is likely to need. Loading them while the
+    // image is written puts them in a class data sharing archive recorded
+    // in the same run.
+    private static final String[] runtimeClasses = {
+        "LoxFunction", "LoxLambda", "LoxClass", "LoxInstance", "LoxThread",
+        "Return", "Break", "Continue", "RunTimeError", "DoubleFormatter",
+    };
+
+    static void write(List<Stmt> statements, Path path) throws IOException
+    {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path), 1 << 16)))
+        {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            Encoder encoder = new Encoder(out);
+            try
+            {
+                encoder.statements(statements);
+            }
+            catch (UncheckedIOException e)
+            {
+                throw e.getCause();
+            }
+        }
+    }
+
+    static List<Stmt> read(Path path) throws IOException
+    {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 16)))
+        {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION)
+            {
+                throw new IOException(path + " is not a jlox image for this version.");
+            }
+            return new Decoder(in).statements();
+        }
+    }
+
+    static void loadRuntimeClasses()
+    {
+        ClassLoader loader = AstImage.class.getClassLoader();
+        for (String name : runtimeClasses)
+        {
+            try
+            {
+                Class.forName(AstImage.class.getPackageName() + "." + name, true, loader);
+            }
+            catch (ClassNotFoundException e)
+            {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    private static class Encoder implements Expr.Visitor<Void>, Stmt.Visitor<Void>
+    {
+        private final DataOutputStream out;
+        private final Map<String, Integer> strings = new HashMap<>();
+
+        Encoder(DataOutputStream out)
+        {
+            this.out = out;
+        }
+
+        void statements(List<? extends Stmt> statements)
+        {
+            number(statements.size());
+            for (Stmt statement : statements) stmt(statement);
+        }
+
+        void expressions(List<? extends Expr> expressions)
+        {
+            number(expressions.size());
+            for (Expr expression : expressions) expr(expression);
+        }
+
+        void tokens(List<Token> tokens)
+        {
+            number(tokens.size());
+            for (Token token : tokens) token(token);
+        }
+
+        void stmt(Stmt stmt)
+        {
+            if (stmt == null) tag(NULL);
+            else stmt.accept(this);
+        }
+
+        void expr(Expr expr)
+        {
+            if (expr == null)
+            {
+                tag(NULL);
+                return;
+            }
+            expr.accept(this);
+            number(expr.depth + 1);
+        }
+
+        void token(Token token)
+        {
+            number(token.type.ordinal());
+            string(token.lexeme);
+            literal(token.literal);
+            number(token.line);
+        }
+
+        void literal(Object value)
+        {
+            try
+            {
+                if (value == null) out.writeByte(NIL);
+                else if (value instanceof Boolean) out.writeByte((Boolean)value ? TRUE : FALSE);
+                else if (value instanceof Double)
+                {
+                    out.writeByte(NUMBER);
+                    out.writeDouble((Double)value);
+                }
+                else
+                {
+                    out.writeByte(STRING);
+                    string((String)value);
+                }
+            }
+            catch (IOException e)
+            {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        void string(String value)
+        {
+            Integer index = strings.get(value);
+            if (index != null)
+            {
+                number(index + 1);
+                return;
+            }
+            strings.put(value, strings.size());
+            number(0);
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            number(bytes.length);
+            try
+            {
+                out.write(bytes);
+            }
+            catch (IOException e)
+            {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        void tag(int tag)
+        {
+            try
+            {
+                out.writeByte(tag);
+            }
+            catch (IOException e)
+            {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        // Unsigned variable length integer, seven bits per byte.
+        void number(int value)
+        {
+            try
+            {
+                while ((value & ~0x7f) != 0)
+                {
+                    out.writeByte((value & 0x7f) | 0x80);
+                    value >>>= 7;
+                }
+                out.writeByte(value);
+            }
+            catch (IOException e)
+            {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public Void visitExpressionStmt(Stmt.Expression stmt)
+        {
+            tag(EXPRESSION);
+            expr(stmt.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitPrintStmt(Stmt.Print stmt)
+        {
+            tag(PRINT);
+            expr(stmt.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitVarStmt(Stmt.Var stmt)
+        {
+            tag(VAR);
+            token(stmt.name);
+            expr(stmt.initializer);
+            return null;
+        }
+
+        @Override
+        public Void visitBlockStmt(Stmt.Block stmt)
+        {
+            tag(BLOCK);
+            statements(stmt.statements);
+            return null;
+        }
+
+        @Override
+        public Void visitIfStmt(Stmt.If stmt)
+        {
+            tag(IF);
+            expr(stmt.condition);
+            stmt(stmt.thenBranch);
+            stmt(stmt.elseBranch);
+            return null;
+        }
+
+        @Override
+        public Void visitWhileStmt(Stmt.While stmt)
+        {
+            tag(WHILE);
+            token(stmt.keyword);
+            expr(stmt.condition);
+            stmt(stmt.body);
+            return null;
+        }
+
+        @Override
+        public Void visitForStmt(Stmt.For stmt)
+        {
+            tag(FOR);
+            token(stmt.keyword);
+            stmt(stmt.initializer);
+            expr(stmt.condition);
+            expr(stmt.increment);
+            stmt(stmt.body);
+            return null;
+        }
+
+        @Override
+        public Void visitBreakStmt(Stmt.Break stmt)
+        {
+            tag(BREAK);
+            return null;
+        }
+
+        @Override
+        public Void visitContinueStmt(Stmt.Continue stmt)
+        {
+            tag(CONTINUE);
+            return null;
+        }
+
+        @Override
+        public Void visitFunctionStmt(Stmt.Function stmt)
+        {
+            tag(FUNCTION);
+            function(stmt);
+            return null;
+        }
+
+        void function(Stmt.Function stmt)
+        {
+            token(stmt.name);
+            tokens(stmt.params);
+            statements(stmt.body);
+            string(stmt.kind);
+        }
+
+        @Override
+        public Void visitReturnStmt(Stmt.Return stmt)
+        {
+            tag(RETURN);
+            token(stmt.keyword);
+            expr(stmt.value);
+            return null;
+        }
+
+        @Override
+        public Void visitClassStmt(Stmt.Class stmt)
+        {
+            tag(CLASS);
+            token(stmt.name);
+            expressions(stmt.superclasses);
+            number(stmt.methods.size());
+            for (Stmt.Function method : stmt.methods) function(method);
+            return null;
+        }
+
+        @Override
+        public Void visitBinaryExpr(Expr.Binary expr)
+        {
+            tag(BINARY);
+            expr(expr.left);
+            token(expr.operator);
+            expr(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitGroupingExpr(Expr.Grouping expr)
+        {
+            tag(GROUPING);
+            expr(expr.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitUnaryExpr(Expr.Unary expr)
+        {
+            tag(UNARY);
+            token(expr.operator);
+            expr(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitLiteralExpr(Expr.Literal expr)
+        {
+            tag(LITERAL);
+            literal(expr.value);
+            return null;
+        }
+
+        @Override
+        public Void visitTernaryExpr(Expr.Ternary expr)
+        {
+            tag(TERNARY);
+            expr(expr.condition);
+            expr(expr.left);
+            expr(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitVariableExpr(Expr.Variable expr)
+        {
+            tag(VARIABLE);
+            token(expr.name);
+            return null;
+        }
+
+        @Override
+        public Void visitAssignExpr(Expr.Assign expr)
+        {
+            tag(ASSIGN);
+            token(expr.name);
+            expr(expr.value);
+            return null;
+        }
+
+        @Override
+        public Void visitLogicalExpr(Expr.Logical expr)
+        {
+            tag(LOGICAL);
+            token(expr.operator);
+            expr(expr.left);
+            expr(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitCallExpr(Expr.Call expr)
+        {
+            tag(CALL);
+            expr(expr.callee);
+            token(expr.paren);
+            expressions(expr.arguments);
+            return null;
+        }
+
+        @Override
+        public Void visitFunctionExpr(Expr.Function expr)
+        {
+            tag(LAMBDA);
+            token(expr.keyword);
+            tokens(expr.params);
+            statements(expr.body);
+            return null;
+        }
+
+        @Override
+        public Void visitGetExpr(Expr.Get expr)
+        {
+            tag(GET);
+            expr(expr.object);
+            token(expr.name);
+            return null;
+        }
+
+        @Override
+        public Void visitSetExpr(Expr.Set expr)
+        {
+            tag(SET);
+            expr(expr.object);
+            token(expr.name);
+            expr(expr.value);
+            return null;
+        }
+
+        @Override
+        public Void visitArrayExpr(Expr.Array expr)
+        {
+            tag(ARRAY);
+            token(expr.bracket);
+            expressions(expr.elements);
+            return null;
+        }
+
+        @Override
+        public Void visitIndexExpr(Expr.Index expr)
+        {
+            tag(INDEX);
+            expr(expr.object);
+            token(expr.bracket);
+            expr(expr.index);
+            return null;
+        }
+
+        @Override
+        public Void visitIndexSetExpr(Expr.IndexSet expr)
+        {
+            tag(INDEX_SET);
+            expr(expr.object);
+            token(expr.bracket);
+            expr(expr.index);
+            expr(expr.value);
+            return null;
+        }
+
+        @Override
+        public Void visitThisExpr(Expr.This expr)
+        {
+            tag(THIS);
+            token(expr.keyword);
+            return null;
+        }
+
+        @Override
+        public Void visitSuperExpr(Expr.Super expr)
+        {
+            tag(SUPER);
+            token(expr.keyword);
+            token(expr.method);
+            return null;
+        }
+    }
+
+    private static class Decoder
+    {
+        private final DataInputStream in;
+        private final List<String> strings = new ArrayList<>();
+
+        Decoder(DataInputStream in)
+        {
+            this.in = in;
+        }
+
+        List<Stmt> statements() throws IOException
+        {
+            int count = number();
+            List<Stmt> statements = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) statements.add(stmt());
+            return statements;
+        }
+
+        List<Token> tokens() throws IOException
+        {
+            int count = number();
+            List<Token> tokens = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) tokens.add(token());
+            return tokens;
+        }
+
+        Stmt stmt() throws IOException
+        {
+            int tag = in.readByte();
+            switch (tag)
+            {
+                case NULL: return null;
+                case EXPRESSION: return new Stmt.Expression(expr());
+                case PRINT: return new Stmt.Print(expr());
+                case VAR:
+                {
+                    Token name = token();
+                    return new Stmt.Var(name, expr());
+                }
+                case BLOCK: return new Stmt.Block(statements());
+                case IF:
+                {
+                    Expr condition = expr();
+                    Stmt thenBranch = stmt();
+                    return new Stmt.If(condition, thenBranch, stmt());
+                }
+                case WHILE:
+                {
+                    Token keyword = token();
+                    Expr condition = expr();
+                    return new Stmt.While(keyword, condition, stmt());
+                }
+                case FOR:
+                {
+                    Token keyword = token();
+                    Stmt initializer = stmt();
+                    Expr condition = expr();
+                    Expr increment = expr();
+                    return new Stmt.For(keyword, initializer, condition, increment, stmt());
+                }
+                case BREAK: return new Stmt.Break();
+                case CONTINUE: return new Stmt.Continue();
+                case FUNCTION: return function();
+                case RETURN:
+                {
+                    Token keyword = token();
+                    return new Stmt.Return(keyword, expr());
+                }
+                case CLASS:
+                {
+                    Token name = token();
+                    int count = number();
+                    List<Expr.Variable> superclasses = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++) superclasses.add((Expr.Variable)expr());
+                    count = number();
+                    List<Stmt.Function> methods = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++) methods.add(function());
+                    return new Stmt.Class(name, superclasses, methods);
+                }
+                default:
+                    throw new IOException("Unknown statement tag " + tag + ".");
+            }
+        }
+
+        Stmt.Function function() throws IOException
+        {
+            Token name = token();
+            List<Token> params = tokens();
+            List<Stmt> body = statements();
+            return new Stmt.Function(name, params, body, string());
+        }
+
+        Expr expr() throws IOException
+        {
+            int tag = in.readByte();
+            if (tag == NULL) return null;
+            Expr expr = node(tag);
+            expr.depth = number() - 1;
+            return expr;
+        }
+
+        private Expr node(int tag) throws IOException
+        {
+            switch (tag)
+            {
+                case BINARY:
+                {
+                    Expr left = expr();
+                    Token operator = token();
+                    return new Expr.Binary(left, operator, expr());
+                }
+                case GROUPING: return new Expr.Grouping(expr());
+                case UNARY:
+                {
+                    Token operator = token();
+                    return new Expr.Unary(operator, expr());
+                }
+                case LITERAL: return new Expr.Literal(literal());
+                case TERNARY:
+                {
+                    Expr condition = expr();
+                    Expr left = expr();
+                    return new Expr.Ternary(condition, left, expr());
+                }
+                case VARIABLE: return new Expr.Variable(token());
+                case ASSIGN:
+                {
+                    Token name = token();
+                    return new Expr.Assign(name, expr());
+                }
+                case LOGICAL:
+                {
+                    Token operator = token();
+                    Expr left = expr();
+                    return new Expr.Logical(operator, left, expr());
+                }
+                case CALL:
+                {
+                    Expr callee = expr();
+                    Token paren = token();
+                    return new Expr.Call(callee, paren, expressions());
+                }
+                case LAMBDA:
+                {
+                    Token keyword = token();
+                    List<Token> params = tokens();
+                    return new Expr.Function(keyword, params, statements());
+                }
+                case GET:
+                {
+                    Expr object = expr();
+                    return new Expr.Get(object, token());
+                }
+                case SET:
+                {
+                    Expr object = expr();
+                    Token name = token();
+                    return new Expr.Set(object, name, expr());
+                }
+                case ARRAY:
+                {
+                    Token bracket = token();
+                    return new Expr.Array(bracket, expressions());
+                }
+                case INDEX:
+                {
+                    Expr object = expr();
+                    Token bracket = token();
+                    return new Expr.Index(object, bracket, expr());
+                }
+                case INDEX_SET:
+                {
+                    Expr object = expr();
+                    Token bracket = token();
+                    Expr index = expr();
+                    return new Expr.IndexSet(object, bracket, index, expr());
+                }
+                case THIS: return new Expr.This(token());
+                case SUPER:
+                {
+                    Token keyword = token();
+                    return new Expr.Super(keyword, token());
+                }
+                default:
+                    throw new IOException("Unknown expression tag " + tag + ".");
+            }
+        }
+
+        List<Expr> expressions() throws IOException
+        {
+            int count = number();
+            List<Expr> expressions = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) expressions.add(expr());
+            return expressions;
+        }
+
+                Token token() throws IOException
+        {
+            TokenType type = tokenTypes[number()];
+            String lexeme = string();
+            Object literal = literal();
+            return new Token(type, lexeme, literal, number());
+        }
+
+        Object literal() throws IOException
+        {
+            int kind = in.readByte();
+            switch (kind)
+            {
+                case NIL: return null;
+                case FALSE: return false;
+                case TRUE: return true;
+                case NUMBER: return in.readDouble();
+                case STRING: return string();
+                default:
+                    throw new IOException("Unknown literal kind " + kind + ".");
+            }
+        }
+
+        String string() throws IOException
+        {
+            int index = number();
+            if (index > 0) return strings.get(index - 1);
+
+            byte[] bytes = new byte[number()];
+            in.readFully(bytes);
+            String value = new String(bytes, StandardCharsets.UTF_8);
+            strings.add(value);
+            return value;
+        }
+
+        int number() throws IOException
+        {
+            int value = 0;
+            int shift = 0;
+            int b;
+            do
+            {
+                b = in.readUnsignedByte();
+                value |= (b & 0x7f) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return value;
+        }
+    }
+}
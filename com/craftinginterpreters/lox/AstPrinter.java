@@ -71,6 +71,24 @@ public class AstPrinter implements Expr.Visitor<String> {
         return parenthesize("lambda");
     }
 
+    @Override
+    public String visitArrayExpr(Expr.Array expr)
+    {
+        return parenthesize("array", expr.elements.toArray(new Expr[0]));
+    }
+
+    @Override
+    public String visitIndexExpr(Expr.Index expr)
+    {
+        return parenthesize("index", expr.object, expr.index);
+    }
+
+    @Override
+    public String visitIndexSetExpr(Expr.IndexSet expr)
+    {
+        return parenthesize("index-set", expr.object, expr.index, expr.value);
+    }
+
     @Override
     public String visitGetExpr(Expr.Get expr)
     {
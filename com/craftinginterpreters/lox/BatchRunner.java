@@ -0,0 +1,242 @@
+package com.craftinginterpreters.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+// jlox --batch [--jobs n] path...
+//
+// Runs every script named on the command line, or found under a named
+// directory, in a fresh interpreter inside this JVM. Each script gets the
+// exit status it would get from "jlox script" (0, 65 or 70). Its stdout
+// and stderr are printed together once it finishes. A status line with
+// the elapsed time then goes to stderr.
+public class BatchRunner {
+    private final int jobs;
+
+    BatchRunner(int jobs)
+    {
+        this.jobs = jobs;
+    }
+
+    static int run(String[] args) throws IOException
+    {
+        int jobs = 1;
+        List<String> paths = new ArrayList<>();
+        for (int i = 0; i < args.length; i++)
+        {
+            if (args[i].equals("--jobs") && i + 1 < args.length)
+            {
+                try
+                {
+                    jobs = Integer.parseInt(args[++i]);
+                }
+                catch (NumberFormatException e)
+                {
+                    jobs = 0;
+                }
+            }
+            else
+            {
+                paths.add(args[i]);
+            }
+        }
+        if (paths.isEmpty() || jobs < 1)
+        {
+            System.err.println("Usage: jlox --batch [--jobs n] path...");
+            return 64;
+        }
+        return new BatchRunner(jobs).runAll(scripts(paths));
+    }
+
+    static List<Path> scripts(List<String> paths) throws IOException
+    {
+        List<Path> scripts = new ArrayList<>();
+        for (String name : paths)
+        {
+            Path path = Paths.get(name);
+            if (Files.isDirectory(path))
+            {
+                try (Stream<Path> walk = Files.walk(path))
+                {
+                    List<Path> found = walk
+                        .filter(file -> file.toString().endsWith(".lox") && Files.isRegularFile(file))
+                        .sorted()
+                        .collect(Collectors.toList());
+                    scripts.addAll(found);
+                }
+            }
+            else
+            {
+                scripts.add(path);
+            }
+        }
+        return scripts;
+    }
+
+    int runAll(List<Path> scripts)
+    {
+        long start = System.nanoTime();
+        int worst = 0;
+        int failed = 0;
+
+        ExecutorService workers = Executors.newFixedThreadPool(jobs);
+        try
+        {
+            List<Future<Integer>> results = new ArrayList<>();
+            for (Path script : scripts)
+            {
+                results.add(workers.submit(() -> runOne(script)));
+            }
+            for (Future<Integer> result : results)
+            {
+                int status;
+                try
+                {
+                    status = result.get();
+                }
+                catch (Exception e)
+                {
+                    // runOne reports everything it can; this only happens
+                    // if the worker itself died.
+                    System.err.println("Batch worker failed: " + e);
+                    status = 70;
+                }
+                if (status != 0) failed++;
+                worst = Math.max(worst, status);
+            }
+        }
+        finally
+        {
+            workers.shutdown();
+        }
+
+        double elapsed = (System.nanoTime() - start) / 1e6;
+        System.err.printf("%d scripts, %d failed, %.2f ms%n", scripts.size(), failed, elapsed);
+        return worst;
+    }
+
+    private int runOne(Path script)
+    {
+        long start = System.nanoTime();
+        ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+        StringBuilder stderr = new StringBuilder();
+        int status;
+        try
+        {
+            status = execute(script, stdout, stderr);
+        }
+        catch (RuntimeException e)
+        {
+            // A bug in jlox rather than in the script; keep the script's
+            // output and still give it a status line.
+            synchronized (stderr)
+            {
+                stderr.append("Internal error: ").append(e).append('\n');
+            }
+            status = 70;
+        }
+        double elapsed = (System.nanoTime() - start) / 1e6;
+
+        synchronized (BatchRunner.class)
+        {
+            System.out.write(stdout.toByteArray(), 0, stdout.size());
+            System.out.flush();
+            System.err.print(stderr);
+            System.err.printf("%-4s %10.2f ms  %s%n", status == 0 ? "ok" : status, elapsed, script);
+        }
+        return status;
+    }
+
+    static int execute(Path script, ByteArrayOutputStream stdout, StringBuilder stderr)
+    {
+        return execute(script, Channels.newChannel(stdout), stderr);
+    }
+
+    static int execute(Path script, WritableByteChannel stdout, StringBuilder stderr)
+    {
+        String source;
+        try
+        {
+            source = new String(Files.readAllBytes(script), Charset.defaultCharset());
+        }
+        catch (IOException e)
+        {
+            stderr.append("Could not read ").append(script).append(": ").append(e.getMessage()).append('\n');
+            return 66;
+        }
+        return execute(source, stdout, stderr);
+    }
+
+    // Runs source in a fresh interpreter the way "jlox script" would, with
+    // print output going to stdout and errors appended to stderr. Returns
+    // the exit status.
+    static int execute(String source, WritableByteChannel stdout, StringBuilder stderr)
+    {
+        boolean[] hadError = new boolean[1];
+        ErrorReporter reporter = (line, where, message) -> {
+            hadError[0] = true;
+            stderr.append("[line ").append(line).append("] Error").append(where).append(": ").append(message).append('\n');
+        };
+
+        Interpreter interpreter = new Interpreter(new OutputBuffer(stdout, OutputBuffer.DEFAULT_CAPACITY));
+        // Spawned threads that fail unjoined report here, from their own
+        // thread, and fail the script; the run waits for all of them.
+        boolean[] threadFailed = new boolean[1];
+        interpreter.threadErrors = error -> {
+            synchronized (stderr)
+            {
+                threadFailed[0] = true;
+                stderr.append(error.report()).append('\n');
+            }
+        };
+        try
+        {
+            List<Stmt> statements = ParallelParser.parse(source, reporter);
+            if (hadError[0]) return 65;
+            new Resolver(interpreter, reporter).resolve(statements);
+            if (hadError[0]) return 65;
+
+            interpreter.run(statements);
+            interpreter.awaitSpawned();
+            synchronized (stderr)
+            {
+                return threadFailed[0] ? 70 : 0;
+            }
+        }
+        catch (RunTimeError error)
+        {
+            synchronized (stderr)
+            {
+                stderr.append(error.report()).append('\n');
+            }
+            return 70;
+        }
+        catch (StackOverflowError error)
+        {
+            synchronized (stderr)
+            {
+                stderr.append("Stack overflow.\n");
+            }
+            return 70;
+        }
+        finally
+        {
+            interpreter.awaitSpawned();
+            interpreter.out.flush();
+            if (interpreter.metrics != null) interpreter.metrics.unregister();
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package com.craftinginterpreters.lox;
+
+// Unwinds to the enclosing loop on 'break'. It carries no state and no
+// stack trace, so one preallocated instance serves every thread.
+public class Break extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    static final Break INSTANCE = new Break();
+
+    private Break()
+    {
+        super(null, null, false, false);
+    }
+}
@@ -0,0 +1,187 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Limits on one execution of a script: steps (loop iterations plus calls),
+// wall-clock time, call depth and bytes allocated, zero meaning no limit.
+// Steps, time and depth are only checked at loop back-edges and function
+// entry, so a script can't run away without passing one, and the clock is
+// read every CLOCK_INTERVAL steps. Bytes are checked as they are charged.
+// An exhausted budget throws BudgetExceeded, a RunTimeError, out of
+// Interpreter.run.
+//
+// Interpreters pick up a default from -Djlox.budget.steps, -Djlox.budget.ms,
+// -Djlox.budget.depth and -Djlox.budget.bytes; embedders call
+// Interpreter.setBudget or LoxScriptEngine.setBudget.
+public final class Budget
+{
+    static final Budget DEFAULT = fromProperties();
+    private static final int CLOCK_INTERVAL = 1024;
+
+    public final long maxSteps;
+    public final long maxMillis;
+    public final int maxDepth;
+    public final long maxBytes;
+
+    public Budget(long maxSteps, long maxMillis, int maxDepth)
+    {
+        this(maxSteps, maxMillis, maxDepth, 0);
+    }
+
+    public Budget(long maxSteps, long maxMillis, int maxDepth, long maxBytes)
+    {
+        if (maxSteps < 0 || maxMillis < 0 || maxDepth < 0 || maxBytes < 0)
+        {
+            throw new IllegalArgumentException("Budget limits can't be negative.");
+        }
+        this.maxSteps = maxSteps;
+        this.maxMillis = maxMillis;
+        this.maxDepth = maxDepth;
+        this.maxBytes = maxBytes;
+    }
+
+    private static Budget fromProperties()
+    {
+        long steps = Long.getLong("jlox.budget.steps", 0);
+        long millis = Long.getLong("jlox.budget.ms", 0);
+        int depth = Integer.getInteger("jlox.budget.depth", 0);
+        long bytes = Long.getLong("jlox.budget.bytes", 0);
+        if (steps == 0 && millis == 0 && depth == 0 && bytes == 0) return null;
+        return new Budget(steps, millis, depth, bytes);
+    }
+
+    // What one execution has spent. Contexts forked for spawned threads
+    // get a meter of their own that shares the steps, bytes and deadline
+    // of the run, so spawning can't escape the quotas; only call depth
+    // and the frames for the report are per thread.
+    static final class Meter
+    {
+        // Rough heap cost of what a script allocates, for a 64-bit JVM with
+        // compressed references. An environment or instance is the object,
+        // its HashMap and the map's first table; a binding or field is one
+        // map entry. A map slot is one slot of each of LoxMap's parallel
+        // arrays, charged whenever a table is rebuilt. A numeric array that
+        // widens pays for its Object[] and a boxed Double per element, and
+        // a bound method for its environment holding "this" and the new
+        // function. Bytes are counted as allocated, not as live.
+        //
+        // Not charged: the argument lists and boxed numbers that calls and
+        // arithmetic create and drop straight away, and the extra copying
+        // when push doubles an array, which ELEMENT per push amortizes.
+        static final int ENVIRONMENT = 152;
+        static final int INSTANCE = 152;
+        static final int BINDING = 32;
+        static final int CLOSURE = 32;
+        static final int STRING = 40;
+        static final int ARRAY = 48;
+        static final int ELEMENT = 8;
+        static final int ENTRY = 32;
+        static final int MAP_SLOT = 24;
+        static final int BOXED = 16;
+        static final int BOUND_METHOD = ENVIRONMENT + BINDING + CLOSURE;
+
+        private final Budget budget;
+        private final long stepLimit;
+        private final int depthLimit;
+        private final long byteLimit;
+        private final long deadline;
+        private final AtomicLong steps;
+        final AtomicLong bytes;
+        // Steps drawn from the shared count that this meter hasn't taken.
+        private long granted;
+        // Where the script last passed a check, to blame allocations that
+        // have no token of their own.
+        private Token last;
+        // The functions being run, outermost first, for the report.
+        private Object[] frames = new Object[16];
+        private int depth;
+
+        Meter(Budget budget)
+        {
+            this(budget, budget.maxMillis > 0 ? System.nanoTime() + budget.maxMillis * 1_000_000 : 0,
+                new AtomicLong(), new AtomicLong());
+        }
+
+        private Meter(Budget budget, long deadline, AtomicLong steps, AtomicLong bytes)
+        {
+            this.budget = budget;
+            this.stepLimit = budget.maxSteps > 0 ? budget.maxSteps : Long.MAX_VALUE;
+            this.depthLimit = budget.maxDepth > 0 ? budget.maxDepth : Integer.MAX_VALUE;
+            this.byteLimit = budget.maxBytes > 0 ? budget.maxBytes : Long.MAX_VALUE;
+            this.deadline = deadline;
+            this.steps = steps;
+            this.bytes = bytes;
+        }
+
+        Meter fork()
+        {
+            return new Meter(budget, deadline, steps, bytes);
+        }
+
+        // A loop back-edge, or the start of a call.
+        void tick(Token at)
+        {
+            last = at;
+            if (--granted < 0) draw(at);
+        }
+
+        // Takes the next CLOCK_INTERVAL steps from the run's shared count
+        // and checks the clock. Drawing in batches keeps the shared counter
+        // off the per-step path; with several threads, steps another meter
+        // has drawn but not yet taken can end the run up to a batch early.
+        private void draw(Token at)
+        {
+            long spent = steps.getAndAdd(CLOCK_INTERVAL);
+            if (spent >= stepLimit)
+            {
+                throw exceeded(at, "Step budget of " + budget.maxSteps + " exceeded.");
+            }
+            if (deadline != 0 && System.nanoTime() - deadline > 0)
+            {
+                throw exceeded(at, "Time budget of " + budget.maxMillis + " ms exceeded.");
+            }
+            granted = Math.min(CLOCK_INTERVAL, stepLimit - spent) - 1;
+        }
+
+        // declaration is the Stmt.Function or Expr.Function being called.
+        void enter(Object declaration, Token at)
+        {
+            tick(at);
+            if (depth == depthLimit)
+            {
+                throw exceeded(at, "Call depth budget of " + budget.maxDepth + " exceeded.");
+            }
+            if (depth == frames.length) frames = Arrays.copyOf(frames, depth * 2);
+            frames[depth++] = declaration;
+        }
+
+        void exit()
+        {
+            frames[--depth] = null;
+        }
+
+        // Charges size bytes; at may be null when the allocation has no
+        // token, natives for example.
+        void allocate(Token at, long size)
+        {
+            if (bytes.addAndGet(size) > byteLimit)
+            {
+                throw exceeded(at != null ? at : last, "Memory budget of " + budget.maxBytes + " bytes exceeded.");
+            }
+        }
+
+        private BudgetExceeded exceeded(Token at, String message)
+        {
+            List<String> stack = new ArrayList<>(depth + 1);
+            for (int i = depth - 1; i >= 0; i--)
+            {
+                stack.add(Profiler.describe(frames[i]));
+            }
+            stack.add("<script>");
+            return new BudgetExceeded(at, message, stack);
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+
+// Thrown when a script runs out of its Budget. stack lists the Lox
+// functions that were running, innermost first, ending with "<script>".
+public class BudgetExceeded extends RunTimeError {
+    private static final long serialVersionUID = 1L;
+
+    // An unmodifiable list of strings, so the error serializes with it.
+    public final List<String> stack;
+
+    BudgetExceeded(Token token, String message, List<String> stack)
+    {
+        super(token, message);
+        this.stack = List.copyOf(stack);
+    }
+
+    // The usual report followed by the Lox call stack.
+    @Override
+    public String report()
+    {
+        StringBuilder report = new StringBuilder(super.report());
+        for (String frame : stack) report.append("\n  in ").append(frame);
+        return report.toString();
+    }
+
+    // The same error blamed on token, for errors raised inside natives.
+    BudgetExceeded at(Token token)
+    {
+        return new BudgetExceeded(token, getMessage(), stack);
+    }
+}
@@ -0,0 +1,14 @@
+package com.craftinginterpreters.lox;
+
+// Unwinds to the enclosing loop on 'continue'. It carries no state and no
+// stack trace, so one preallocated instance serves every thread.
+public class Continue extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    static final Continue INSTANCE = new Continue();
+
+    private Continue()
+    {
+        super(null, null, false, false);
+    }
+}
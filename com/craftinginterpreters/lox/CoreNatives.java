@@ -0,0 +1,42 @@
+package com.craftinginterpreters.lox;
+
+// The natives every interpreter starts with.
+final class CoreNatives {
+    private CoreNatives() {}
+
+    @Native
+    static double clock()
+    {
+        return System.currentTimeMillis() / 1000.0;
+    }
+
+    // Length of an array, map or string.
+    @Native
+    static double len(Object value)
+    {
+        if (value instanceof LoxArray) return ((LoxArray)value).length();
+        if (value instanceof LoxMap) return ((LoxMap)value).size();
+        if (value instanceof String) return ((String)value).length();
+        throw new RunTimeError(null, "Can only take the length of arrays, maps and strings.");
+    }
+
+    @Native
+    static LoxThread spawn(Interpreter interpreter, Object callee)
+    {
+        if (!(callee instanceof LoxCallable) || ((LoxCallable)callee).arity() != 0)
+        {
+            throw new RunTimeError(null, "Can only spawn functions that take no arguments.");
+        }
+        return new LoxThread(interpreter.fork(), (LoxCallable)callee);
+    }
+
+    @Native
+    static Object join(Object thread)
+    {
+        if (!(thread instanceof LoxThread))
+        {
+            throw new RunTimeError(null, "Can only join spawned threads.");
+        }
+        return ((LoxThread)thread).join();
+    }
+}
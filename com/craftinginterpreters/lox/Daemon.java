@@ -0,0 +1,286 @@
+package com.craftinginterpreters.lox;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+// jlox --daemon [socket]
+//
+// Keeps a warm JVM listening on a Unix domain socket (by default
+// jlox.sock in the temporary directory). Each connection carries one
+// script and is served by one of WORKERS threads, in a fresh interpreter.
+// Up to QUEUED more connections wait for a worker; beyond that a client
+// gets status 75 straight away. A client has READ_TIMEOUT_MS to send its
+// request before the daemon hangs up. The daemon only replaces a stale
+// socket at its path; it refuses to start over any other file or over a
+// socket another daemon is still listening on.
+//
+// A request is one frame: 'P' (absolute path of a script) or 'S' (the
+// source itself), a 4 byte big-endian length of at most MAX_REQUEST and
+// that many bytes. The reply is a series of frames: 'O' with stdout bytes,
+// sent each time the script's output buffer fills and once more at the
+// end, then at most one 'E' with everything written to stderr, and
+// finally 'X' with the exit status as a 4 byte integer. 'X' is sent for
+// every request read, even one the daemon rejects or fails on.
+public class Daemon {
+    static final byte PATH = 'P';
+    static final byte SOURCE = 'S';
+    static final byte STDOUT = 'O';
+    static final byte STDERR = 'E';
+    static final byte EXIT = 'X';
+
+    // Longest request body accepted. The body is read into memory before
+    // the script runs, and the daemon is shared, so one client must not
+    // be able to make it allocate arbitrarily much.
+    static final int MAX_REQUEST = 16 << 20;
+
+    static final int WORKERS = Integer.getInteger("jlox.daemon.workers",
+                                                  Math.max(4, Runtime.getRuntime().availableProcessors()));
+    static final int QUEUED = 64;
+    static final long READ_TIMEOUT_MS = Long.getLong("jlox.daemon.timeout", 10_000);
+
+    private static final ScheduledExecutorService timeouts = Executors.newSingleThreadScheduledExecutor(task -> {
+        Thread thread = new Thread(task, "jlox-daemon-timeout");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    static Path defaultSocket()
+    {
+        return Paths.get(System.getProperty("java.io.tmpdir"), "jlox.sock");
+    }
+
+    static int run(String[] args) throws IOException
+    {
+        Path socket = args.length > 0 ? Paths.get(args[0]) : defaultSocket();
+        String problem = removeStaleSocket(socket);
+        if (problem != null)
+        {
+            System.err.println("Can't listen on " + socket + ": " + problem);
+            return 73;
+        }
+
+        ThreadPoolExecutor workers = new ThreadPoolExecutor(WORKERS, WORKERS, 0, TimeUnit.MILLISECONDS,
+                                                            new ArrayBlockingQueue<>(QUEUED), task -> {
+            Thread thread = new Thread(task, "jlox-daemon");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX))
+        {
+            server.bind(UnixDomainSocketAddress.of(socket));
+            socket.toFile().deleteOnExit();
+            System.err.println("jlox daemon listening on " + socket);
+
+            for (;;)
+            {
+                SocketChannel client = server.accept();
+                try
+                {
+                    workers.execute(() -> serve(client));
+                }
+                catch (RejectedExecutionException e)
+                {
+                    busy(client);
+                }
+            }
+        }
+        finally
+        {
+            workers.shutdownNow();
+        }
+    }
+
+    // Deletes path if it is a socket nobody is listening on. Returns why
+    // the daemon can't use path, or null if it can.
+    private static String removeStaleSocket(Path path) throws IOException
+    {
+        BasicFileAttributes attributes;
+        try
+        {
+            attributes = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        }
+        catch (IOException e)
+        {
+            return null;
+        }
+        if (!attributes.isOther()) return "the file exists and is not a socket.";
+
+        try (SocketChannel probe = SocketChannel.open(UnixDomainSocketAddress.of(path)))
+        {
+            return "another daemon is listening on it.";
+        }
+        catch (ConnectException e)
+        {
+            // Left behind by a daemon that is gone.
+        }
+        catch (IOException e)
+        {
+            return "the file is not a socket.";
+        }
+        Files.delete(path);
+        return null;
+    }
+
+    // Answers a connection the workers have no room for, without reading
+    // its request.
+    private static void busy(SocketChannel client)
+    {
+        try (client)
+        {
+            new FrameChannel(client, STDERR).write(ByteBuffer.wrap("Daemon is busy.\n".getBytes(Charset.defaultCharset())));
+            ByteBuffer exit = ByteBuffer.allocate(5);
+            exit.put(EXIT).putInt(75).flip();
+            while (exit.hasRemaining()) client.write(exit);
+        }
+        catch (IOException e)
+        {
+            // The client went away, nothing left to report to.
+        }
+    }
+
+    private static void serve(SocketChannel client)
+    {
+        try (client)
+        {
+            // Closing the channel ends a blocked read; channels have no
+            // read timeout of their own.
+            ScheduledFuture<?> timeout = timeouts.schedule(() -> {
+                try
+                {
+                    client.close();
+                }
+                catch (IOException e)
+                {
+                    // Already closed.
+                }
+            }, READ_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+
+            DataInputStream in = new DataInputStream(Channels.newInputStream(client));
+            byte kind;
+            int length;
+            byte[] body = null;
+            try
+            {
+                kind = in.readByte();
+                length = in.readInt();
+                if (length >= 0 && length <= MAX_REQUEST)
+                {
+                    body = new byte[length];
+                    in.readFully(body);
+                }
+            }
+            finally
+            {
+                timeout.cancel(false);
+            }
+
+            StringBuilder stderr = new StringBuilder();
+            int status;
+            if (body == null)
+            {
+                stderr.append("Request of ").append(length).append(" bytes is not between 0 and ")
+                      .append(MAX_REQUEST).append(".\n");
+                status = 64;
+            }
+            else
+            {
+                status = execute(client, kind, body, stderr);
+            }
+
+            if (stderr.length() > 0)
+            {
+                new FrameChannel(client, STDERR).write(ByteBuffer.wrap(stderr.toString().getBytes(Charset.defaultCharset())));
+            }
+            ByteBuffer exit = ByteBuffer.allocate(5);
+            exit.put(EXIT).putInt(status).flip();
+            while (exit.hasRemaining()) client.write(exit);
+        }
+        catch (IOException e)
+        {
+            // The client went away, nothing left to report to.
+        }
+    }
+
+    private static int execute(SocketChannel client, byte kind, byte[] body, StringBuilder stderr)
+    {
+        FrameChannel stdout = new FrameChannel(client, STDOUT);
+        try
+        {
+            if (kind == PATH)
+            {
+                Path script = Paths.get(new String(body, Charset.defaultCharset()));
+                return BatchRunner.execute(script, stdout, stderr);
+            }
+            if (kind == SOURCE)
+            {
+                return BatchRunner.execute(new String(body, Charset.defaultCharset()), stdout, stderr);
+            }
+            stderr.append("Unknown request.\n");
+            return 64;
+        }
+        catch (RuntimeException e)
+        {
+            // An UncheckedIOException from a client that stopped reading,
+            // or a bug. Either way only this request fails.
+            synchronized (stderr)
+            {
+                stderr.append("Internal error: ").append(e).append('\n');
+            }
+            return 70;
+        }
+    }
+
+    // Wraps every write in a frame of the given kind.
+    private static class FrameChannel implements WritableByteChannel
+    {
+        private final SocketChannel socket;
+        private final byte kind;
+
+        FrameChannel(SocketChannel socket, byte kind)
+        {
+            this.socket = socket;
+            this.kind = kind;
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException
+        {
+            int count = src.remaining();
+            ByteBuffer header = ByteBuffer.allocate(5);
+            header.put(kind).putInt(count).flip();
+            ByteBuffer[] frame = {header, src};
+            synchronized (socket)
+            {
+                while (src.hasRemaining() || header.hasRemaining()) socket.write(frame);
+            }
+            return count;
+        }
+
+        @Override
+        public boolean isOpen() { return socket.isOpen(); }
+
+        @Override
+        public void close() {}
+    }
+}
@@ -0,0 +1,221 @@
+package com.craftinginterpreters.lox;
+
+import java.math.BigInteger;
+
+// Turns Lox numbers into the text print and string concatenation show.
+// Whole numbers below 10^7 take a fast path through Long.toString. Any
+// other finite value is printed with the fewest digits that still read
+// back as the same double, found with Giulietti's Schubfach algorithm,
+// and laid out like Double.toString: plain from 10^-3 up to 10^7, d.dE<n>
+// outside that range, without a trailing ".0". Double.toString can't
+// supply the digits because before JDK 19 it isn't always shortest:
+// 1e23 comes out as 9.999999999999999E22.
+public final class DoubleFormatter {
+    private static final double PLAIN_LIMIT = 1e7;
+
+    // Schubfach parameters for doubles, named as in the paper ("The
+    // Schubfach way to render doubles", 2020).
+    private static final int P = 53;
+    private static final int Q_MIN = -1074;
+    private static final long C_MIN = 1L << (P - 1);
+    private static final int C_TINY = 3;
+    private static final int K_MIN = -324;
+    private static final int K_MAX = 292;
+    private static final long MASK_63 = 0x7fffffffffffffffL;
+
+    // 126-bit approximations of 10^-k, made on first use so startup
+    // doesn't pay for the whole table.
+    private static final Power[] POWERS = new Power[K_MAX - K_MIN + 1];
+
+    private DoubleFormatter() {}
+
+    public static boolean isSmallInteger(double number)
+    {
+        if (number == 0) return 1 / number > 0;
+        return number == (long)number && Math.abs(number) < PLAIN_LIMIT;
+    }
+
+    public static String format(double number)
+    {
+        if (isSmallInteger(number)) return Long.toString((long)number);
+        if (number == 0 || Double.isNaN(number) || Double.isInfinite(number))
+        {
+            String s = Double.toString(number);
+            return s.endsWith(".0") ? s.substring(0, s.length()-2) : s;
+        }
+
+        long bits = Double.doubleToRawLongBits(number);
+        boolean negative = bits < 0;
+        long t = bits & (C_MIN - 1);
+        int bq = (int)(bits >>> (P - 1)) & 0x7ff;
+        if (bq == 0)
+        {
+            // Subnormal. The smallest ones need an extra digit of precision.
+            if (t < C_TINY) return toDecimal(negative, Q_MIN, 10 * t, -1);
+            return toDecimal(negative, Q_MIN, t, 0);
+        }
+        int mq = -Q_MIN + 1 - bq;
+        long c = C_MIN | t;
+        if (0 < mq && mq < P)
+        {
+            // An integer too big for the fast path but exact in a long.
+            long f = c >> mq;
+            if (f << mq == c) return layout(negative, f, 0);
+        }
+        return toDecimal(negative, -mq, c, 0);
+    }
+
+    // number = c * 2^q. Picks the shortest decimal in the rounding interval
+    // of number, preferring the closest one when there are several.
+    private static String toDecimal(boolean negative, int q, long c, int dk)
+    {
+        int out = (int)c & 1;
+        long cb = c << 2;
+        long cbr = cb + 2;
+        long cbl;
+        int k;
+        if (c != C_MIN || q == Q_MIN)
+        {
+            cbl = cb - 2;
+            k = flog10pow2(q);
+        }
+        else
+        {
+            // The interval below a power of two is half as wide.
+            cbl = cb - 1;
+            k = flog10threeQuartersPow2(q);
+        }
+        int h = q + flog2pow10(-k) + 2;
+
+        Power g = power(k);
+        long vb = rop(g, cb << h);
+        long vbl = rop(g, cbl << h);
+        long vbr = rop(g, cbr << h);
+
+        long s = vb >> 2;
+        if (s >= 100)
+        {
+            // Try one digit fewer first.
+            long sp10 = s / 10 * 10;
+            long tp10 = sp10 + 10;
+            boolean upin = vbl + out <= sp10 << 2;
+            boolean wpin = (tp10 << 2) + out <= vbr;
+            if (upin != wpin) return layout(negative, upin ? sp10 : tp10, k);
+        }
+        long t = s + 1;
+        boolean uin = vbl + out <= s << 2;
+        boolean win = (t << 2) + out <= vbr;
+        if (uin != win) return layout(negative, uin ? s : t, k + dk);
+        long cmp = vb - (s + t << 1);
+        return layout(negative, cmp < 0 || cmp == 0 && (s & 1) == 0 ? s : t, k + dk);
+    }
+
+    // Rounds g * cp / 2^127 to odd: the low bit is set when anything was
+    // cut off, so comparisons against the exact value stay correct.
+    private static long rop(Power g, long cp)
+    {
+        long x1 = Math.multiplyHigh(g.g0, cp);
+        long y0 = g.g1 * cp;
+        long y1 = Math.multiplyHigh(g.g1, cp);
+        long z = (y0 >>> 1) + x1;
+        long vbp = y1 + (z >>> 63);
+        return vbp | (z & MASK_63) + MASK_63 >>> 63;
+    }
+
+    // Writes f * 10^e the way Double.toString lays numbers out.
+    private static String layout(boolean negative, long f, int e)
+    {
+        while (f % 10 == 0)
+        {
+            f /= 10;
+            e++;
+        }
+        String digits = Long.toString(f);
+        int length = digits.length();
+        // The value is 0.digits * 10^point.
+        int point = e + length;
+
+        StringBuilder text = new StringBuilder(length + 8);
+        if (negative) text.append('-');
+        if (point > -3 && point <= 7)
+        {
+            if (point <= 0)
+            {
+                text.append("0.");
+                for (int i = point; i < 0; i++) text.append('0');
+                text.append(digits);
+            }
+            else if (point >= length)
+            {
+                text.append(digits);
+                for (int i = length; i < point; i++) text.append('0');
+            }
+            else
+            {
+                text.append(digits, 0, point).append('.').append(digits, point, length);
+            }
+        }
+        else
+        {
+            text.append(digits.charAt(0)).append('.');
+            if (length > 1) text.append(digits, 1, length);
+            else text.append('0');
+            text.append('E').append(point - 1);
+        }
+        return text.toString();
+    }
+
+    // floor(e * log10(2))
+    private static int flog10pow2(int e)
+    {
+        return (int)(e * 661_971_961_083L >> 41);
+    }
+
+    // floor(e * log10(2) + log10(3/4))
+    private static int flog10threeQuartersPow2(int e)
+    {
+        return (int)(e * 661_971_961_083L + -274_743_187_321L >> 41);
+    }
+
+    // floor(e * log2(10))
+    private static int flog2pow10(int e)
+    {
+        return (int)(e * 913_124_641_741L >> 38);
+    }
+
+    // g = floor(10^-k * 2^(125 - flog2pow10(-k))) + 1, so that
+    // 2^125 <= g < 2^126, split into two 63-bit halves. Racing threads may
+    // both compute an entry; the final fields make either copy safe to read.
+    private static Power power(int k)
+    {
+        Power power = POWERS[k - K_MIN];
+        if (power != null) return power;
+
+        int shift = 125 - flog2pow10(-k);
+        BigInteger g;
+        if (k <= 0)
+        {
+            BigInteger ten = BigInteger.TEN.pow(-k);
+            g = shift >= 0 ? ten.shiftLeft(shift) : ten.shiftRight(-shift);
+        }
+        else
+        {
+            g = BigInteger.ONE.shiftLeft(shift).divide(BigInteger.TEN.pow(k));
+        }
+        g = g.add(BigInteger.ONE);
+        power = new Power(g.shiftRight(63).longValue(), g.longValue() & MASK_63);
+        POWERS[k - K_MIN] = power;
+        return power;
+    }
+
+    private static final class Power {
+        final long g1;
+        final long g0;
+
+        Power(long g1, long g0)
+        {
+            this.g1 = g1;
+            this.g0 = g0;
+        }
+    }
+}
@@ -7,7 +7,7 @@ import com.craftinginterpreters.lox.Token;
 import java.util.HashMap;
 
 public class Environment {
-    private final Map<String, Object> values = new HashMap<>();
+    final Map<String, Object> values = new HashMap<>();
     final Environment enclosing;
 
     public Environment()
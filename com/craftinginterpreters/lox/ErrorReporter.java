@@ -0,0 +1,24 @@
+package com.craftinginterpreters.lox;
+
+// Receives compile errors from the Scanner, Parser and Resolver. The
+// command line reports them to stderr through Lox, embedders can collect
+// them instead.
+public interface ErrorReporter {
+    ErrorReporter SILENT = (line, where, message) -> {};
+
+    void report(int line, String where, String message);
+
+    default void error(int line, String message)
+    {
+        report(line, "", message);
+    }
+
+    default void error(Token token, String message)
+    {
+        if (token.type == TokenType.EOF) {
+            report(token.line, " at end", message);
+        } else {
+            report(token.line, " at '" + token.lexeme + "'", message);
+        }
+    }
+}
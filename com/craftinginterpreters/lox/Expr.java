@@ -1,8 +1,18 @@
+// Generated by com.craftinginterpreters.tool.GenerateAst. Change the node
+// list there and regenerate instead of editing this file.
 package com.craftinginterpreters.lox;
 
+import java.io.Serializable;
 import java.util.List;
 
-public abstract class Expr {
+public abstract sealed class Expr implements Serializable
+    permits Expr.Binary, Expr.Grouping, Expr.Unary, Expr.Literal,
+        Expr.Ternary, Expr.Variable, Expr.Assign, Expr.Logical, Expr.Call,
+        Expr.Function, Expr.Get, Expr.Set, Expr.This, Expr.Super, Expr.Array,
+        Expr.Index, Expr.IndexSet
+{
+  private static final long serialVersionUID = 1L;
+
   public interface Visitor<R> {
     R visitBinaryExpr(Binary expr);
     R visitGroupingExpr(Grouping expr);
@@ -18,221 +28,411 @@ public abstract class Expr {
     R visitSetExpr(Set expr);
     R visitThisExpr(This expr);
     R visitSuperExpr(Super expr);
+    R visitArrayExpr(Array expr);
+    R visitIndexExpr(Index expr);
+    R visitIndexSetExpr(IndexSet expr);
+  }
+
+  // Node tags, one per subclass, for switch dispatch.
+  public static final int BINARY = 0;
+  public static final int GROUPING = 1;
+  public static final int UNARY = 2;
+  public static final int LITERAL = 3;
+  public static final int TERNARY = 4;
+  public static final int VARIABLE = 5;
+  public static final int ASSIGN = 6;
+  public static final int LOGICAL = 7;
+  public static final int CALL = 8;
+  public static final int FUNCTION = 9;
+  public static final int GET = 10;
+  public static final int SET = 11;
+  public static final int THIS = 12;
+  public static final int SUPER = 13;
+  public static final int ARRAY = 14;
+  public static final int INDEX = 15;
+  public static final int INDEX_SET = 16;
+
+  public final int tag;
+
+  // Scope distance of a variable, this or super reference, filled in by the
+  // Resolver. -1 means the name is global.
+  public int depth = -1;
+
+  private Expr(int tag)
+  {
+    this.tag = tag;
   }
 
   public abstract <R> R accept(Visitor<R> visitor);
-    public static class Binary extends Expr
+
+  public static final class Binary extends Expr
+  {
+    private static final long serialVersionUID = 1L;
+
+    public final Expr left;
+    public final Token operator;
+    public final Expr right;
+
+    public Binary(Expr left, Token operator, Expr right)
+    {
+      super(BINARY);
+      this.left = left;
+      this.operator = operator;
+      this.right = right;
+    }
+
+    @Override
+    public <R> R accept(Visitor<R> visitor)
     {
-      public final Expr left;
-      public final Token operator;
-      public final Expr right;
-        public Binary(Expr left, Token operator, Expr right) {
-          this.left = left;
-          this.operator = operator;
-          this.right = right;
-        }
+      return visitor.visitBinaryExpr(this);
+    }
+  }
+
+  public static final class Grouping extends Expr
+  {
+    private static final long serialVersionUID = 1L;
 
-        @Override
-        public <R> R accept(Visitor<R> visitor) {
-          return visitor.visitBinaryExpr(this);
-        }
+    public final Expr expression;
+
+    public Grouping(Expr expression)
+    {
+      super(GROUPING);
+      this.expression = expression;
     }
 
-    public static class Ternary extends Expr
+    @Override
+    public <R> R accept(Visitor<R> visitor)
     {
-      public final Expr condition;
-      public final Expr left;
-      public final Expr right;
+      return visitor.visitGroupingExpr(this);
+    }
+  }
+
+  public static final class Unary extends Expr
+  {
+    private static final long serialVersionUID = 1L;
 
-      public Ternary(Expr condition, Expr left, Expr right)
-      {
-          this.condition = condition;
-          this.left = left;
-          this.right = right;
-      }
+    public final Token operator;
+    public final Expr right;
 
-      @Override
-      public <R> R accept(Visitor<R> visitor) {
-        return visitor.visitTernaryExpr(this);
-      }
+    public Unary(Token operator, Expr right)
+    {
+      super(UNARY);
+      this.operator = operator;
+      this.right = right;
     }
-    public static class Grouping extends Expr
+
+    @Override
+    public <R> R accept(Visitor<R> visitor)
     {
-      public final Expr expression;
-        public Grouping(Expr expression) {
-          this.expression = expression;
-        }
+      return visitor.visitUnaryExpr(this);
+    }
+  }
+
+  public static final class Literal extends Expr
+  {
+    private static final long serialVersionUID = 1L;
+
+    public final Object value;
 
-        @Override
-        public <R> R accept(Visitor<R> visitor) {
-          return visitor.visitGroupingExpr(this);
-        }
+    public Literal(Object value)
+    {
+      super(LITERAL);
+      this.value = value;
     }
 
-    public static class Unary extends Expr
+    @Override
+    public <R> R accept(Visitor<R> visitor)
     {
-      public final Token operator;
-      public final Expr right;
-        public Unary(Token operator, Expr right) {
-          this.operator = operator;
-          this.right = right;
-        }
+      return visitor.visitLiteralExpr(this);
+    }
+  }
+
+  public static final class Ternary extends Expr
+  {
+    private static final long serialVersionUID = 1L;
 
-        @Override
-        public <R> R accept(Visitor<R> visitor) {
-          return visitor.visitUnaryExpr(this);
-        }
+    public final Expr condition;
+    public final Expr left;
+    public final Expr right;
+
+    public Ternary(Expr condition, Expr left, Expr right)
+    {
+      super(TERNARY);
+      this.condition = condition;
+      this.left = left;
+      this.right = right;
     }
 
-    public static class Literal extends Expr
+    @Override
+    public <R> R accept(Visitor<R> visitor)
     {
-      public final Object value;
-        public Literal(Object value) {
-          this.value = value;
-        }
+      return visitor.visitTernaryExpr(this);
+    }
+  }
+
+  public static final class Variable extends Expr
+  {
+    private static final long serialVersionUID = 1L;
+
+    public final Token name;
+    transient int slot;
 
-        @Override
-        public <R> R accept(Visitor<R> visitor) {
-          return visitor.visitLiteralExpr(this);
-        }
+    public Variable(Token name)
+    {
+      super(VARIABLE);
+      this.name = name;
     }
 
-    public static class Variable extends Expr
+    @Override
+    public <R> R accept(Visitor<R> visitor)
     {
-      public final Token name;
-        public Variable(Token name) {
-          this.name = name;
-        }
+      return visitor.visitVariableExpr(this);
+    }
+  }
 
-        @Override
-        public <R> R accept(Visitor<R> visitor) {
-          return visitor.visitVariableExpr(this);
-        }
+  public static final class Assign extends Expr
+  {
+    private static final long serialVersionUID = 1L;
+
+    public final Token name;
+    public final Expr value;
+    transient int slot;
+
+    public Assign(Token name, Expr value)
+    {
+      super(ASSIGN);
+      this.name = name;
+      this.value = value;
     }
 
-    public static class Logical extends Expr
+    @Override
+    public <R> R accept(Visitor<R> visitor)
     {
-      public final Token operator;
-      public final Expr left;
-      public final Expr right;
-        public Logical(Token operator, Expr left, Expr right) {
-          this.left = left;
-          this.right = right;
-          this.operator = operator;
-        }
+      return visitor.visitAssignExpr(this);
+    }
+  }
+
+  public static final class Logical extends Expr
+  {
+    private static final long serialVersionUID = 1L;
+
+    public final Token operator;
+    public final Expr left;
+    public final Expr right;
 
-        @Override
-        public <R> R accept(Visitor<R> visitor) {
-          return visitor.visitLogicalExpr(this);
-        }
+    public Logical(Token operator, Expr left, Expr right)
+    {
+      super(LOGICAL);
+      this.operator = operator;
+      this.left = left;
+      this.right = right;
     }
 
-    public static class Assign extends Expr
+    @Override
+    public <R> R accept(Visitor<R> visitor)
     {
-      public final Token name;
-      public final Expr value;
+      return visitor.visitLogicalExpr(this);
+    }
+  }
 
-        public Assign(Token name, Expr value) {
-          this.name = name;
-          this.value = value;
-        }
+  public static final class Call extends Expr
+  {
+    private static final long serialVersionUID = 1L;
 
-        @Override
-        public <R> R accept(Visitor<R> visitor) {
-          return visitor.visitAssignExpr(this);
-        }
+    public final Expr callee;
+    public final Token paren;
+    public final List<Expr> arguments;
+
+    public Call(Expr callee, Token paren, List<Expr> arguments)
+    {
+      super(CALL);
+      this.callee = callee;
+      this.paren = paren;
+      this.arguments = arguments;
     }
 
-    public static class Call extends Expr
+    @Override
+    public <R> R accept(Visitor<R> visitor)
     {
-      public final Expr callee;
-      public final Token paren;
-      public final List<Expr> arguments;
-        public Call(Expr callee, Token paren, List<Expr> arguments) {
-          this.callee = callee;
-          this.paren = paren;
-          this.arguments = arguments;
-        }
+      return visitor.visitCallExpr(this);
+    }
+  }
+
+  public static final class Function extends Expr
+  {
+    private static final long serialVersionUID = 1L;
 
-        @Override
-        public <R> R accept(Visitor<R> visitor) {
-          return visitor.visitCallExpr(this);
-        }
+    public final Token keyword;
+    public final List<Token> params;
+    public final List<Stmt> body;
+
+    public Function(Token keyword, List<Token> params, List<Stmt> body)
+    {
+      super(FUNCTION);
+      this.keyword = keyword;
+      this.params = params;
+      this.body = body;
     }
 
-    public static class Function extends Expr
+    @Override
+    public <R> R accept(Visitor<R> visitor)
     {
-      public final List<Token> params;
-      public final List<Stmt> body;
-      public Function(List<Token> params, List<Stmt> body) {
-        this.params = params;
-        this.body = body;
-      }
+      return visitor.visitFunctionExpr(this);
+    }
+  }
+
+  public static final class Get extends Expr
+  {
+    private static final long serialVersionUID = 1L;
 
-        @Override
-        public <R> R accept(Visitor<R> visitor) {
-          return visitor.visitFunctionExpr(this);
-        }
+    public final Expr object;
+    public final Token name;
+    transient LoxClass.Lookup lookup;
+    transient byte state;
+
+    public Get(Expr object, Token name)
+    {
+      super(GET);
+      this.object = object;
+      this.name = name;
     }
 
-    public static class Get extends Expr
+    @Override
+    public <R> R accept(Visitor<R> visitor)
     {
-      public final Expr object;
-      public final Token name;
-      public Get(Expr object, Token name) {
-        this.object = object;
-        this.name = name;
-      }
+      return visitor.visitGetExpr(this);
+    }
+  }
+
+  public static final class Set extends Expr
+  {
+    private static final long serialVersionUID = 1L;
+
+    public final Expr object;
+    public final Token name;
+    public final Expr value;
 
-        @Override
-        public <R> R accept(Visitor<R> visitor) {
-          return visitor.visitGetExpr(this);
-        }
+    public Set(Expr object, Token name, Expr value)
+    {
+      super(SET);
+      this.object = object;
+      this.name = name;
+      this.value = value;
     }
 
-    public static class Set extends Expr
+    @Override
+    public <R> R accept(Visitor<R> visitor)
     {
-      public final Expr object;
-      public final Token name;
-      public final Expr value;
-      public Set(Expr object, Token name, Expr value) {
-        this.object = object;
-        this.name = name;
-        this.value = value;
-      }
+      return visitor.visitSetExpr(this);
+    }
+  }
+
+  public static final class This extends Expr
+  {
+    private static final long serialVersionUID = 1L;
 
-        @Override
-        public <R> R accept(Visitor<R> visitor) {
-          return visitor.visitSetExpr(this);
-        }
+    public final Token keyword;
+
+    public This(Token keyword)
+    {
+      super(THIS);
+      this.keyword = keyword;
     }
 
-    public static class Super extends Expr
+    @Override
+    public <R> R accept(Visitor<R> visitor)
     {
-        public final Token keyword;
-        public final Token method;
-        public Super(Token keyword, Token method)
-        {
-          this.keyword = keyword;
-          this.method = method;
-        }
+      return visitor.visitThisExpr(this);
+    }
+  }
+
+  public static final class Super extends Expr
+  {
+    private static final long serialVersionUID = 1L;
+
+    public final Token keyword;
+    public final Token method;
 
-        @Override
-        public <R> R accept(Visitor<R> visitor) {
-          return visitor.visitSuperExpr(this);
-        }
+    public Super(Token keyword, Token method)
+    {
+      super(SUPER);
+      this.keyword = keyword;
+      this.method = method;
     }
 
-    public static class This extends Expr
+    @Override
+    public <R> R accept(Visitor<R> visitor)
     {
-      public final Token keyword;
-      public This(Token keyword) {
-        this.keyword = keyword;
-      }
+      return visitor.visitSuperExpr(this);
+    }
+  }
 
-      @Override
-      public <R> R accept(Visitor<R> visitor) {
-        return visitor.visitThisExpr(this);
-      }
+  public static final class Array extends Expr
+  {
+    private static final long serialVersionUID = 1L;
+
+    public final Token bracket;
+    public final List<Expr> elements;
+
+    public Array(Token bracket, List<Expr> elements)
+    {
+      super(ARRAY);
+      this.bracket = bracket;
+      this.elements = elements;
     }
-}
\ No newline at end of file
+
+    @Override
+    public <R> R accept(Visitor<R> visitor)
+    {
+      return visitor.visitArrayExpr(this);
+    }
+  }
+
+  public static final class Index extends Expr
+  {
+    private static final long serialVersionUID = 1L;
+
+    public final Expr object;
+    public final Token bracket;
+    public final Expr index;
+
+    public Index(Expr object, Token bracket, Expr index)
+    {
+      super(INDEX);
+      this.object = object;
+      this.bracket = bracket;
+      this.index = index;
+    }
+
+    @Override
+    public <R> R accept(Visitor<R> visitor)
+    {
+      return visitor.visitIndexExpr(this);
+    }
+  }
+
+  public static final class IndexSet extends Expr
+  {
+    private static final long serialVersionUID = 1L;
+
+    public final Expr object;
+    public final Token bracket;
+    public final Expr index;
+    public final Expr value;
+
+    public IndexSet(Expr object, Token bracket, Expr index, Expr value)
+    {
+      super(INDEX_SET);
+      this.object = object;
+      this.bracket = bracket;
+      this.index = index;
+      this.value = value;
+    }
+
+    @Override
+    public <R> R accept(Visitor<R> visitor)
+    {
+      return visitor.visitIndexSetExpr(this);
+    }
+  }
+}
@@ -0,0 +1,250 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.craftinginterpreters.lox.Token;
+
+// Top-level scope. Every global name is interned to a slot once, and each
+// interpreter keeps its values in an array of cells indexed by that slot.
+// The resolver stores the slot on each global Variable and Assign node
+// (slots start at 1 so a node's 0 means not looked up yet, as for code
+// loaded from an AST image), so reads skip the name lookup entirely.
+// Redefining a global reuses its cell.
+// Globals are shared by every thread running the program: cells are
+// published through a volatile array and hold volatile values.
+//
+// The cells are an overlay on an immutable GlobalImage. Reads fall back to
+// the image when the overlay has no value, writes always land in the
+// overlay, so many environments can share one image.
+public class GlobalEnvironment extends Environment {
+    // Names to slots for one program: an interpreter, the contexts created
+    // from it and the images it snapshots. A table only grows by the names
+    // its own program mentions, and goes away with it. An environment over
+    // an image starts from a copy of the image's table, so code resolved
+    // against the image (a prelude's functions) finds its globals at the
+    // same slots in every environment built on it.
+    static final class Slots
+    {
+        private final Map<String, Integer> slots;
+        private int next;
+
+        Slots()
+        {
+            this(new ConcurrentHashMap<>(), 1);
+        }
+
+        private Slots(Map<String, Integer> slots, int next)
+        {
+            this.slots = slots;
+            this.next = next;
+        }
+
+        int slot(String name)
+        {
+            Integer slot = slots.get(name);
+            if (slot != null) return slot;
+            synchronized (this)
+            {
+                return slots.computeIfAbsent(name, key -> next++);
+            }
+        }
+
+        // The slot of name, or 0 if the table has none; never adds one.
+        int find(String name)
+        {
+            Integer slot = slots.get(name);
+            return slot != null ? slot : 0;
+        }
+
+        synchronized Slots copy()
+        {
+            return new Slots(new ConcurrentHashMap<>(slots), next);
+        }
+    }
+
+    static final class Cell
+    {
+        final String name;
+        volatile Object value;
+        volatile boolean defined;
+
+        Cell(String name)
+        {
+            this.name = name;
+        }
+    }
+
+    private volatile Cell[] cells = new Cell[16];
+    final GlobalImage image;
+    final Slots slots;
+
+    public GlobalEnvironment()
+    {
+        this(GlobalImage.EMPTY);
+    }
+
+    public GlobalEnvironment(GlobalImage image)
+    {
+        this(image, image.slots.copy());
+    }
+
+    // An environment sharing slots with another over the same image, so
+    // both can run the same resolved code.
+    GlobalEnvironment(GlobalImage image, Slots slots)
+    {
+        this.image = image;
+        this.slots = slots;
+    }
+
+    int slot(String name)
+    {
+        return slots.slot(name);
+    }
+
+    synchronized Cell cell(int slot, String name)
+    {
+        Cell[] cells = this.cells;
+        if (slot >= cells.length)
+        {
+            cells = Arrays.copyOf(cells, Math.max(cells.length * 2, slot + 1));
+        }
+        Cell cell = cells[slot];
+        if (cell == null)
+        {
+            cell = new Cell(name);
+            cells[slot] = cell;
+        }
+        this.cells = cells;
+        return cell;
+    }
+
+    synchronized void clear()
+    {
+        for (Cell cell : cells)
+        {
+            if (cell == null) continue;
+            cell.defined = false;
+            cell.value = null;
+        }
+    }
+
+    synchronized GlobalImage snapshot()
+    {
+        int size = Math.max(cells.length, image.size());
+        Object[] values = new Object[size];
+        boolean[] defined = new boolean[size];
+        for (int slot = 0; slot < size; slot++)
+        {
+            Cell cell = slot < cells.length ? cells[slot] : null;
+            if (cell != null && cell.defined)
+            {
+                values[slot] = cell.value;
+                defined[slot] = true;
+            }
+            else if (image.isDefined(slot))
+            {
+                values[slot] = image.get(slot);
+                defined[slot] = true;
+            }
+        }
+        return new GlobalImage(values, defined, slots.copy());
+    }
+
+    // Every defined global by name, overlay and image together.
+    Map<String, Object> values()
+    {
+        Map<String, Object> values = new HashMap<>();
+        for (Map.Entry<String, Integer> entry : slots.slots.entrySet())
+        {
+            int slot = entry.getValue();
+            Cell[] cells = this.cells;
+            Cell cell = slot < cells.length ? cells[slot] : null;
+            if (cell != null && cell.defined)
+            {
+                values.put(entry.getKey(), cell.value);
+            }
+            else if (image.isDefined(slot))
+            {
+                values.put(entry.getKey(), image.get(slot));
+            }
+        }
+        return values;
+    }
+
+    public Object get(Expr.Variable expr)
+    {
+        int slot = expr.slot;
+        if (slot == 0)
+        {
+            slot = slot(expr.name.lexeme);
+            expr.slot = slot;
+        }
+        return read(slot, expr.name);
+    }
+
+    public void assign(Expr.Assign expr, Object value)
+    {
+        int slot = expr.slot;
+        if (slot == 0)
+        {
+            slot = slot(expr.name.lexeme);
+            expr.slot = slot;
+        }
+        write(slot, expr.name, value);
+    }
+
+    @Override
+    public void define(String name, Object value)
+    {
+        Cell cell = cell(slot(name), name);
+        cell.value = value;
+        cell.defined = true;
+    }
+
+    @Override
+    public Object get(Token name)
+    {
+        return read(slot(name.lexeme), name);
+    }
+
+    @Override
+    public void assign(Token name, Object value)
+    {
+        write(slot(name.lexeme), name, value);
+    }
+
+    private Object read(int slot, Token name)
+    {
+        Cell[] cells = this.cells;
+        if (slot < cells.length)
+        {
+            Cell cell = cells[slot];
+            if (cell != null && cell.defined) return cell.value;
+        }
+        if (image.isDefined(slot)) return image.get(slot);
+        throw new RunTimeError(name, "Undefined variable '" + name.lexeme + "'.");
+    }
+
+    private void write(int slot, Token name, Object value)
+    {
+        Cell[] cells = this.cells;
+        if (slot < cells.length)
+        {
+            Cell cell = cells[slot];
+            if (cell != null && cell.defined)
+            {
+                cell.value = value;
+                return;
+            }
+        }
+        if (image.isDefined(slot))
+        {
+            define(name.lexeme, value);
+            return;
+        }
+        throw new RunTimeError(name, "Undefined variable '" + name.lexeme + "'.");
+    }
+}
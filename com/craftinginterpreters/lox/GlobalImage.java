@@ -0,0 +1,153 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// An immutable set of global values indexed by GlobalEnvironment slot,
+// with the slot table they were captured under.
+// Interpreters created from an image see its globals without copying
+// them; anything they define or assign goes into their own overlay.
+// Only the bindings are copy-on-write, the objects they hold are shared,
+// so of() only accepts a prelude whose globals nobody can change in place:
+// see checkShareable.
+public final class GlobalImage {
+    static final GlobalImage EMPTY = new GlobalImage(new Object[0], new boolean[0], new GlobalEnvironment.Slots());
+
+    private final Object[] values;
+    private final boolean[] defined;
+    final GlobalEnvironment.Slots slots;
+
+    GlobalImage(Object[] values, boolean[] defined, GlobalEnvironment.Slots slots)
+    {
+        this.values = values;
+        this.defined = defined;
+        this.slots = slots;
+    }
+
+    // Runs a prelude once in a fresh interpreter, on top of the natives,
+    // and captures the globals it leaves behind. Compile errors go to
+    // reporter and make this throw, as does a prelude that leaves mutable
+    // state in its globals; runtime errors propagate.
+    public static GlobalImage of(String source, ErrorReporter reporter)
+    {
+        boolean[] failed = new boolean[1];
+        ErrorReporter recording = (line, where, message) -> {
+            failed[0] = true;
+            reporter.report(line, where, message);
+        };
+
+        Scanner scanner = new Scanner(source, 0, source.length(), 0, recording);
+        Parser parser = new Parser(scanner.scanTokens(), recording);
+        List<Stmt> statements = parser.parse();
+        Interpreter interpreter = new Interpreter(OutputBuffer.stdout());
+        if (!failed[0]) new Resolver(interpreter, recording).resolve(statements);
+        if (failed[0]) throw new IllegalArgumentException("Prelude has compile errors.");
+
+        try
+        {
+            interpreter.run(statements);
+        }
+        finally
+        {
+            interpreter.out.flush();
+            if (interpreter.metrics != null) interpreter.metrics.unregister();
+        }
+        checkShareable(interpreter.globals);
+        return interpreter.snapshot();
+    }
+
+    // Every interpreter built on an image shares the objects it holds, so
+    // a prelude may only leave behind values no script can change: nil,
+    // booleans, numbers, strings, natives, and classes and functions that
+    // close over nothing but the globals. Instances, arrays, maps, threads
+    // and closures over local variables would let one tenant's writes
+    // show up in every other tenant.
+    private static void checkShareable(GlobalEnvironment globals)
+    {
+        Set<Object> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Map.Entry<String, Object> entry : globals.values().entrySet())
+        {
+            String problem = mutable(entry.getValue(), seen);
+            if (problem != null)
+            {
+                throw new IllegalArgumentException("Prelude global '" + entry.getKey() + "' " + problem +
+                                                   ", which every interpreter using the prelude would share.");
+            }
+        }
+    }
+
+    // Why value can be changed in place, or null if it can't.
+    private static String mutable(Object value, Set<Object> seen)
+    {
+        if (value == null || value instanceof Boolean || value instanceof Double ||
+            value instanceof String || value instanceof NativeFunction) return null;
+        if (!seen.add(value)) return null;
+
+        if (value instanceof LoxClass)
+        {
+            LoxClass klass = (LoxClass)value;
+            for (LoxClass superClass : klass.superClasses)
+            {
+                String problem = mutable(superClass, seen);
+                if (problem != null) return problem;
+            }
+            for (LoxFunction method : klass.methods.values())
+            {
+                String problem = mutable(method, seen);
+                if (problem != null) return problem;
+            }
+            return null;
+        }
+        if (value instanceof LoxFunction) return mutableClosure(((LoxFunction)value).closure);
+        if (value instanceof LoxLambda) return mutableClosure(((LoxLambda)value).closure);
+        if (value instanceof LoxInstance) return "holds an instance";
+        if (value instanceof LoxArray) return "holds an array";
+        if (value instanceof LoxMap) return "holds a map";
+        return "holds " + Interpreter.stringify(value);
+    }
+
+    // Functions see globals through the running interpreter, so only the
+    // environments between a function and the globals matter. The one
+    // holding a class's "super" can't be assigned to; any other holds
+    // local variables.
+    private static String mutableClosure(Environment closure)
+    {
+        for (Environment environment = closure; environment != null && !(environment instanceof GlobalEnvironment);
+             environment = environment.enclosing)
+        {
+            if (environment.values.size() != 1 || !environment.values.containsKey("super"))
+            {
+                return environment.values.containsKey("this") ? "is bound to an instance" : "closes over local variables";
+            }
+        }
+        return null;
+    }
+
+    boolean isDefined(String name)
+    {
+        return isDefined(slots.find(name));
+    }
+
+    Object get(String name)
+    {
+        return get(slots.find(name));
+    }
+
+    int size()
+    {
+        return values.length;
+    }
+
+    boolean isDefined(int slot)
+    {
+        return slot < defined.length && defined[slot];
+    }
+
+    Object get(int slot)
+    {
+        return values[slot];
+    }
+}
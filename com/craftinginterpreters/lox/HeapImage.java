@@ -0,0 +1,596 @@
+package com.craftinginterpreters.lox;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Saves everything reachable from an interpreter's globals (classes,
+// instances, functions and lambdas with their closures and AST) so a
+// later process can pick up where a long initialization left off.
+//
+// Runtime objects are numbered as they are first reached and written one
+// record at a time from a work list, so a long chain of instances or
+// environments never deepens the Java stack. A value is either written
+// inline (nil, booleans, numbers, strings) or as the number of its
+// record, which keeps shared and cyclic references intact. The reader
+// collects every record before creating any object, then links them up.
+// Two things are written symbolically: the global environment, which
+// becomes the loading interpreter's globals, and natives, which are
+// rebound by name. Natives registered by the host must be registered
+// again before the image is read.
+//
+// Only function and lambda declarations go through Java serialization,
+// and the stream refuses to deserialize anything but AST classes.
+public class HeapImage {
+    private static final int MAGIC = 0x4c4f5848;
+    private static final int VERSION = 3;
+
+    // Value tags.
+    private static final int NIL = 0, FALSE = 1, TRUE = 2, NUMBER = 3, STRING = 4, REF = 5,
+        NATIVE = 6, GLOBALS = 7;
+    // Record kinds.
+    private static final int ENVIRONMENT = 0, CLASS = 1, FUNCTION = 2, LAMBDA = 3, INSTANCE = 4,
+        ARRAY = 5, MAP = 6, LIST = 7, END = 8;
+
+    private static final ObjectInputFilter AST_ONLY = ObjectInputFilter.Config.createFilter(
+        "com.craftinginterpreters.lox.*;java.util.ArrayList;java.lang.Enum;java.lang.Number;" +
+        "java.lang.Double;java.lang.Boolean;java.lang.Object;!*");
+
+    static void write(Interpreter interpreter, Path path) throws IOException
+    {
+        try (ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(Files.newOutputStream(path), 1 << 16)))
+        {
+            new Writer(out, interpreter.globals).write();
+        }
+        catch (IOException | RuntimeException e)
+        {
+            Files.deleteIfExists(path);
+            throw e;
+        }
+        catch (StackOverflowError e)
+        {
+            Files.deleteIfExists(path);
+            throw new IOException("A function is nested too deeply to save.", e);
+        }
+    }
+
+    static void read(Interpreter interpreter, Path path) throws IOException
+    {
+        try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 16)))
+        {
+            in.setObjectInputFilter(AST_ONLY);
+            if (in.readInt() != MAGIC || in.readInt() != VERSION)
+            {
+                throw new IOException(path + " is not a jlox heap image for this version.");
+            }
+            new Reader(in, interpreter).read();
+        }
+        catch (ClassNotFoundException e)
+        {
+            throw new IOException(e);
+        }
+        catch (StackOverflowError e)
+        {
+            throw new IOException("A function in " + path + " is nested too deeply to load.", e);
+        }
+    }
+
+    private static final class Writer
+    {
+        private final ObjectOutputStream out;
+        private final GlobalEnvironment globals;
+        private final Map<Object, String> natives = new IdentityHashMap<>();
+        private final Map<Object, Integer> ids = new IdentityHashMap<>();
+        // Every object given a number so far, in order. Records are
+        // written for them from the front while values append to the back.
+        private final List<Object> objects = new ArrayList<>();
+
+        Writer(ObjectOutputStream out, GlobalEnvironment globals)
+        {
+            this.out = out;
+            this.globals = globals;
+        }
+
+        void write() throws IOException
+        {
+            Map<String, Object> values = globals.values();
+            // A native is saved by the name it was registered under, not
+            // any other global that happens to hold it.
+            for (Map.Entry<String, Object> entry : values.entrySet())
+            {
+                if (entry.getValue() instanceof NativeFunction &&
+                    ((NativeFunction)entry.getValue()).name.equals(entry.getKey()))
+                {
+                    natives.put(entry.getValue(), entry.getKey());
+                }
+            }
+
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            fields(values);
+            for (int i = 0; i < objects.size(); i++) record(objects.get(i));
+            out.writeByte(END);
+        }
+
+        private void record(Object object) throws IOException
+        {
+            if (object instanceof Environment)
+            {
+                Environment environment = (Environment)object;
+                out.writeByte(ENVIRONMENT);
+                value(environment.enclosing);
+                fields(environment.values);
+            }
+            else if (object instanceof LoxClass)
+            {
+                LoxClass klass = (LoxClass)object;
+                out.writeByte(CLASS);
+                string(klass.name);
+                values(klass.superClasses);
+                fields(klass.methods);
+            }
+            else if (object instanceof LoxFunction)
+            {
+                LoxFunction function = (LoxFunction)object;
+                out.writeByte(FUNCTION);
+                out.writeObject(function.declaration);
+                value(function.closure);
+                out.writeBoolean(function.isInitializer);
+                out.writeBoolean(function.isGetter);
+            }
+            else if (object instanceof LoxLambda)
+            {
+                LoxLambda lambda = (LoxLambda)object;
+                out.writeByte(LAMBDA);
+                out.writeObject(lambda.declaration);
+                value(lambda.closure);
+            }
+            else if (object instanceof LoxInstance)
+            {
+                LoxInstance instance = (LoxInstance)object;
+                out.writeByte(INSTANCE);
+                value(instance.klass);
+                fields(instance.fields);
+            }
+            else if (object instanceof LoxArray)
+            {
+                LoxArray array = (LoxArray)object;
+                out.writeByte(ARRAY);
+                out.writeBoolean(array.isNumeric());
+                out.writeInt(array.length());
+                for (int i = 0; i < array.length(); i++)
+                {
+                    Object element = array.get(null, (double)i);
+                    if (array.isNumeric()) out.writeDouble((double)element);
+                    else value(element);
+                }
+            }
+            else if (object instanceof LoxMap)
+            {
+                LoxArray keys = ((LoxMap)object).keys();
+                LoxArray values = ((LoxMap)object).values();
+                out.writeByte(MAP);
+                out.writeInt(keys.length());
+                for (int i = 0; i < keys.length(); i++)
+                {
+                    value(keys.get(null, (double)i));
+                    value(values.get(null, (double)i));
+                }
+            }
+            else
+            {
+                out.writeByte(LIST);
+                values((List<?>)object);
+            }
+        }
+
+        private void fields(Map<String, ?> fields) throws IOException
+        {
+            out.writeInt(fields.size());
+            for (Map.Entry<String, ?> entry : fields.entrySet())
+            {
+                string(entry.getKey());
+                value(entry.getValue());
+            }
+        }
+
+        private void values(List<?> values) throws IOException
+        {
+            out.writeInt(values.size());
+            for (Object value : values) value(value);
+        }
+
+        private void value(Object value) throws IOException
+        {
+            if (value == null)
+            {
+                out.writeByte(NIL);
+            }
+            else if (value instanceof Boolean)
+            {
+                out.writeByte((boolean)value ? TRUE : FALSE);
+            }
+            else if (value instanceof Double)
+            {
+                out.writeByte(NUMBER);
+                out.writeDouble((double)value);
+            }
+            else if (value instanceof String)
+            {
+                out.writeByte(STRING);
+                string((String)value);
+            }
+            else if (value == globals)
+            {
+                out.writeByte(GLOBALS);
+            }
+            else if (natives.containsKey(value))
+            {
+                out.writeByte(NATIVE);
+                string(natives.get(value));
+            }
+            else
+            {
+                Integer id = ids.get(value);
+                if (id == null)
+                {
+                    if (!savable(value)) throw new NotSerializableException(value.getClass().getName());
+                    id = objects.size();
+                    ids.put(value, id);
+                    objects.add(value);
+                }
+                out.writeByte(REF);
+                out.writeInt(id);
+            }
+        }
+
+        private static boolean savable(Object value)
+        {
+            return value instanceof Environment && !(value instanceof GlobalEnvironment) ||
+                value instanceof LoxClass || value instanceof LoxFunction ||
+                value instanceof LoxLambda || value instanceof LoxInstance ||
+                value instanceof LoxArray || value instanceof LoxMap ||
+                value instanceof ArrayList;
+        }
+
+        // writeUTF stops at 64K, which a Lox string can pass.
+        private void string(String string) throws IOException
+        {
+            byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    // A value that refers to a record, before the record's object exists.
+    private static final class Ref
+    {
+        final int id;
+
+        Ref(int id)
+        {
+            this.id = id;
+        }
+    }
+
+    // One record as read from the image. Names and items hold an
+    // environment's, instance's or class's fields in turn; items alone
+    // hold array, list and superclass elements, or map keys and values
+    // in turn.
+    private static final class Record
+    {
+        final int kind;
+        String name;
+        Object declaration;
+        Object link;
+        boolean isInitializer;
+        boolean isGetter;
+        int length;
+        double[] numbers;
+        Object[] elements;
+        List<Object> supers;
+        final List<String> names = new ArrayList<>();
+        final List<Object> items = new ArrayList<>();
+
+        Record(int kind)
+        {
+            this.kind = kind;
+        }
+    }
+
+    private static final class Reader
+    {
+        private final ObjectInputStream in;
+        private final Interpreter interpreter;
+        private final Map<String, Object> natives;
+        private final List<Record> records = new ArrayList<>();
+        private Object[] objects;
+
+        Reader(ObjectInputStream in, Interpreter interpreter)
+        {
+            this.in = in;
+            this.interpreter = interpreter;
+            this.natives = interpreter.globals.values();
+        }
+
+        void read() throws IOException, ClassNotFoundException
+        {
+            Record globals = new Record(ENVIRONMENT);
+            fields(globals);
+            for (int kind = in.readUnsignedByte(); kind != END; kind = in.readUnsignedByte())
+            {
+                records.add(record(kind));
+            }
+
+            objects = new Object[records.size()];
+            for (int id = 0; id < objects.length; id++)
+            {
+                if (!needsLinks(records.get(id))) create(id);
+            }
+            for (int id = 0; id < objects.length; id++)
+            {
+                if (needsLinks(records.get(id))) create(id);
+            }
+            for (int id = 0; id < objects.length; id++) fill(id);
+
+            for (int i = 0; i < globals.names.size(); i++)
+            {
+                interpreter.globals.define(globals.names.get(i), resolve(globals.items.get(i)));
+            }
+        }
+
+        private Record record(int kind) throws IOException, ClassNotFoundException
+        {
+            Record record = new Record(kind);
+            switch (kind)
+            {
+                case ENVIRONMENT:
+                    record.link = value();
+                    fields(record);
+                    break;
+                case CLASS:
+                    record.name = string();
+                    record.supers = new ArrayList<>();
+                    for (int i = in.readInt(); i > 0; i--) record.supers.add(value());
+                    fields(record);
+                    break;
+                case FUNCTION:
+                    record.declaration = in.readObject();
+                    record.link = value();
+                    record.isInitializer = in.readBoolean();
+                    record.isGetter = in.readBoolean();
+                    break;
+                case LAMBDA:
+                    record.declaration = in.readObject();
+                    record.link = value();
+                    break;
+                case INSTANCE:
+                    record.link = value();
+                    fields(record);
+                    break;
+                case ARRAY:
+                {
+                    boolean numeric = in.readBoolean();
+                    int length = in.readInt();
+                    if (length < 0) throw corrupt();
+                    record.length = length;
+                    if (numeric)
+                    {
+                        // Arrays grow by doubling, so they need room for one.
+                        record.numbers = new double[Math.max(length, 1)];
+                        for (int i = 0; i < length; i++) record.numbers[i] = in.readDouble();
+                    }
+                    else
+                    {
+                        record.elements = new Object[Math.max(length, 1)];
+                        for (int i = 0; i < length; i++) record.items.add(value());
+                    }
+                    break;
+                }
+                case MAP:
+                    for (int i = in.readInt(); i > 0; i--)
+                    {
+                        record.items.add(value());
+                        record.items.add(value());
+                    }
+                    break;
+                case LIST:
+                    for (int i = in.readInt(); i > 0; i--) record.items.add(value());
+                    break;
+                default:
+                    throw corrupt();
+            }
+            return record;
+        }
+
+        private void fields(Record record) throws IOException
+        {
+            for (int i = in.readInt(); i > 0; i--)
+            {
+                record.names.add(string());
+                record.items.add(value());
+            }
+        }
+
+        private Object value() throws IOException
+        {
+            switch (in.readUnsignedByte())
+            {
+                case NIL: return null;
+                case FALSE: return false;
+                case TRUE: return true;
+                case NUMBER: return in.readDouble();
+                case STRING: return string();
+                case REF: return new Ref(in.readInt());
+                case GLOBALS: return interpreter.globals;
+                case NATIVE:
+                {
+                    String name = string();
+                    if (!(natives.get(name) instanceof NativeFunction))
+                    {
+                        throw new IOException("Unknown native '" + name + "'.");
+                    }
+                    return natives.get(name);
+                }
+                default: throw corrupt();
+            }
+        }
+
+        private String string() throws IOException
+        {
+            int length = in.readInt();
+            if (length < 0) throw corrupt();
+            byte[] bytes = new byte[length];
+            in.readFully(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        // Functions, lambdas and instances need their closure or class to
+        // exist first, so read() creates them in a second pass.
+        private static boolean needsLinks(Record record)
+        {
+            return record.kind == FUNCTION || record.kind == LAMBDA || record.kind == INSTANCE;
+        }
+
+        // Makes the object for a record, leaving its contents for fill().
+        private void create(int id) throws IOException
+        {
+            Record record = records.get(id);
+            switch (record.kind)
+            {
+                case ENVIRONMENT:
+                    environment(id);
+                    break;
+                case CLASS:
+                    objects[id] = new LoxClass(record.name, new ArrayList<>(), new HashMap<>());
+                    break;
+                case FUNCTION:
+                    objects[id] = new LoxFunction(cast(record.declaration, Stmt.Function.class),
+                        cast(resolve(record.link), Environment.class), record.isInitializer, record.isGetter);
+                    break;
+                case LAMBDA:
+                    objects[id] = new LoxLambda(cast(record.declaration, Expr.Function.class),
+                        cast(resolve(record.link), Environment.class));
+                    break;
+                case INSTANCE:
+                    objects[id] = new LoxInstance(cast(resolve(record.link), LoxClass.class));
+                    break;
+                case ARRAY:
+                    objects[id] = record.numbers != null
+                        ? new LoxArray(record.numbers, record.length)
+                        : new LoxArray(record.elements, record.length);
+                    break;
+                case MAP:
+                    objects[id] = new LoxMap();
+                    break;
+                case LIST:
+                    objects[id] = new ArrayList<Object>();
+                    break;
+            }
+        }
+
+        // Environments are made outermost first, walking the enclosing
+        // chain with an explicit stack rather than recursing up it.
+        private void environment(int id) throws IOException
+        {
+            Deque<Integer> pending = new ArrayDeque<>();
+            for (int at = id; objects[at] == null; )
+            {
+                if (pending.size() > records.size()) throw corrupt();
+                pending.push(at);
+                Object enclosing = records.get(at).link;
+                if (!(enclosing instanceof Ref)) break;
+                at = ref(enclosing);
+                if (records.get(at).kind != ENVIRONMENT) throw corrupt();
+            }
+            while (!pending.isEmpty())
+            {
+                int at = pending.pop();
+                Object enclosing = resolve(records.get(at).link);
+                if (enclosing != null && !(enclosing instanceof Environment)) throw corrupt();
+                objects[at] = new Environment((Environment)enclosing);
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private void fill(int id) throws IOException
+        {
+            Record record = records.get(id);
+            Object object = objects[id];
+            switch (record.kind)
+            {
+                case ENVIRONMENT:
+                    for (int i = 0; i < record.names.size(); i++)
+                    {
+                        ((Environment)object).define(record.names.get(i), resolve(record.items.get(i)));
+                    }
+                    break;
+                case CLASS:
+                {
+                    LoxClass klass = (LoxClass)object;
+                    for (Object superclass : record.supers) klass.superClasses.add(cast(resolve(superclass), LoxClass.class));
+                    for (int i = 0; i < record.names.size(); i++)
+                    {
+                        klass.methods.put(record.names.get(i), cast(resolve(record.items.get(i)), LoxFunction.class));
+                    }
+                    break;
+                }
+                case INSTANCE:
+                    for (int i = 0; i < record.names.size(); i++)
+                    {
+                        ((LoxInstance)object).fields.put(record.names.get(i), resolve(record.items.get(i)));
+                    }
+                    break;
+                case ARRAY:
+                    for (int i = 0; i < record.items.size(); i++) record.elements[i] = resolve(record.items.get(i));
+                    break;
+                case MAP:
+                    for (int i = 0; i < record.items.size(); i += 2)
+                    {
+                        ((LoxMap)object).set(null, resolve(record.items.get(i)), resolve(record.items.get(i + 1)));
+                    }
+                    break;
+                case LIST:
+                    for (Object item : record.items) ((List<Object>)object).add(resolve(item));
+                    break;
+            }
+        }
+
+        private Object resolve(Object value) throws IOException
+        {
+            return value instanceof Ref ? objects[ref(value)] : value;
+        }
+
+        private int ref(Object value) throws IOException
+        {
+            int id = ((Ref)value).id;
+            if (id < 0 || id >= records.size()) throw corrupt();
+            return id;
+        }
+
+        private static <T> T cast(Object value, Class<T> type) throws IOException
+        {
+            if (!type.isInstance(value)) throw corrupt();
+            return type.cast(value);
+        }
+
+        private static IOException corrupt()
+        {
+            return new IOException("The heap image is corrupt.");
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package com.craftinginterpreters.lox;
+
+import java.lang.management.ManagementFactory;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+// Counters for one interpreter, published over JMX as
+// com.craftinginterpreters.lox:type=Interpreter,name=<name>. Contexts
+// forked from an interpreter count into the same metrics. The counters
+// are LongAdders so threads running in the same interpreter don't fight
+// over one cache line.
+//
+// com.craftinginterpreters.lox:type=Interpreters sums every interpreter,
+// including ones that have since been unregistered.
+//
+// Metrics are off unless Interpreter.enableMetrics is called, or
+// -Djlox.jmx=true turns them on for every interpreter; when off the
+// interpreter pays a null check per counted event.
+public class InterpreterMetrics implements InterpreterMetricsMBean {
+    static final boolean AUTO = Boolean.getBoolean("jlox.jmx");
+    private static final String DOMAIN = "com.craftinginterpreters.lox";
+    private static final AtomicInteger ids = new AtomicInteger();
+    private static final Queue<InterpreterMetrics> live = new ConcurrentLinkedQueue<>();
+    private static final InterpreterMetrics retired = new InterpreterMetrics(null);
+
+    final LongAdder statements = new LongAdder();
+    final LongAdder calls = new LongAdder();
+    final LongAdder instances = new LongAdder();
+    final LongAdder environments = new LongAdder();
+    final LongAdder errors = new LongAdder();
+    final LongAdder parseNanos = new LongAdder();
+    final LongAdder resolveNanos = new LongAdder();
+    final LongAdder interpretNanos = new LongAdder();
+    final LongAdder depth = new LongAdder();
+
+    private final ObjectName objectName;
+
+    private InterpreterMetrics(ObjectName objectName)
+    {
+        this.objectName = objectName;
+    }
+
+    // Creates and registers the metrics for a new interpreter. A null name
+    // picks one: interpreter-1, interpreter-2, ...
+    static InterpreterMetrics register(String name)
+    {
+        if (name == null) name = "interpreter-" + ids.incrementAndGet();
+        try
+        {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            synchronized (live)
+            {
+                ObjectName total = new ObjectName(DOMAIN + ":type=Interpreters");
+                if (!server.isRegistered(total))
+                {
+                    server.registerMBean(new StandardMBean(new Total(), InterpreterMetricsMBean.class), total);
+                }
+            }
+
+            InterpreterMetrics metrics = new InterpreterMetrics(
+                new ObjectName(DOMAIN + ":type=Interpreter,name=" + ObjectName.quote(name)));
+            server.registerMBean(metrics, metrics.objectName);
+            live.add(metrics);
+            return metrics;
+        }
+        catch (JMException e)
+        {
+            throw new IllegalStateException("Can't register metrics for '" + name + "'.", e);
+        }
+    }
+
+    // Removes this interpreter's MBean. Its counts stay in the total.
+    public void unregister()
+    {
+        if (!live.remove(this)) return;
+        retired.add(this);
+        try
+        {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        }
+        catch (JMException e)
+        {
+            // Already gone.
+        }
+    }
+
+    private void add(InterpreterMetrics other)
+    {
+        statements.add(other.statements.sum());
+        calls.add(other.calls.sum());
+        instances.add(other.instances.sum());
+        environments.add(other.environments.sum());
+        errors.add(other.errors.sum());
+        parseNanos.add(other.parseNanos.sum());
+        resolveNanos.add(other.resolveNanos.sum());
+        interpretNanos.add(other.interpretNanos.sum());
+    }
+
+    @Override
+    public long getStatementsExecuted() { return statements.sum(); }
+
+    @Override
+    public long getCalls() { return calls.sum(); }
+
+    @Override
+    public long getInstancesCreated() { return instances.sum(); }
+
+    // Environments for blocks, loops, class bodies and call frames.
+    @Override
+    public long getEnvironmentsAllocated() { return environments.sum(); }
+
+    @Override
+    public long getRuntimeErrors() { return errors.sum(); }
+
+    // Includes scanning, which happens interleaved with parsing.
+    @Override
+    public long getParseTimeMillis() { return TimeUnit.NANOSECONDS.toMillis(parseNanos.sum()); }
+
+    @Override
+    public long getResolveTimeMillis() { return TimeUnit.NANOSECONDS.toMillis(resolveNanos.sum()); }
+
+    @Override
+    public long getInterpretTimeMillis() { return TimeUnit.NANOSECONDS.toMillis(interpretNanos.sum()); }
+
+    // Lox calls in progress, summed over the interpreter's threads.
+    @Override
+    public long getCallDepth() { return depth.sum(); }
+
+    private static class Total implements InterpreterMetricsMBean
+    {
+        private long sum(ToLongFunction<InterpreterMetrics> counter)
+        {
+            long total = counter.applyAsLong(retired);
+            for (InterpreterMetrics metrics : live) total += counter.applyAsLong(metrics);
+            return total;
+        }
+
+        @Override
+        public long getStatementsExecuted() { return sum(InterpreterMetrics::getStatementsExecuted); }
+
+        @Override
+        public long getCalls() { return sum(InterpreterMetrics::getCalls); }
+
+        @Override
+        public long getInstancesCreated() { return sum(InterpreterMetrics::getInstancesCreated); }
+
+        @Override
+        public long getEnvironmentsAllocated() { return sum(InterpreterMetrics::getEnvironmentsAllocated); }
+
+        @Override
+        public long getRuntimeErrors() { return sum(InterpreterMetrics::getRuntimeErrors); }
+
+        @Override
+        public long getParseTimeMillis() { return TimeUnit.NANOSECONDS.toMillis(sum(m -> m.parseNanos.sum())); }
+
+        @Override
+        public long getResolveTimeMillis() { return TimeUnit.NANOSECONDS.toMillis(sum(m -> m.resolveNanos.sum())); }
+
+        @Override
+        public long getInterpretTimeMillis() { return TimeUnit.NANOSECONDS.toMillis(sum(m -> m.interpretNanos.sum())); }
+
+        @Override
+        public long getCallDepth() { return sum(InterpreterMetrics::getCallDepth); }
+    }
+}
@@ -0,0 +1,14 @@
+package com.craftinginterpreters.lox;
+
+// What an interpreter's MBean shows. Times are cumulative milliseconds.
+public interface InterpreterMetricsMBean {
+    long getStatementsExecuted();
+    long getCalls();
+    long getInstancesCreated();
+    long getEnvironmentsAllocated();
+    long getRuntimeErrors();
+    long getParseTimeMillis();
+    long getResolveTimeMillis();
+    long getInterpretTimeMillis();
+    long getCallDepth();
+}
@@ -4,21 +4,65 @@ import com.craftinginterpreters.lox.*;
 import com.craftinginterpreters.lox.TokenType.*;
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.NotSerializableException;
 import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
 import java.lang.module.ResolutionException;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.List;
 
 public class Lox {
   static boolean hadError = false;
-  static boolean hadRuntimeError = false;
+  static volatile boolean hadRuntimeError = false;
   static boolean repl = false;
+  static final ErrorReporter reporter = Lox::report;
+  // -Djlox.launchTime=<epoch millis>, set by a launcher just before it
+  // starts the JVM, reports the time to the first statement on stderr.
+  private static final long launchTime = Long.getLong("jlox.launchTime", 0);
   private static Interpreter interpreter = new Interpreter();
+  // Bytes the main thread allocated, once main() has returned.
+  private static volatile long mainAllocated;
+
   public static void main(String[] args) throws IOException {
-    if (args.length > 1) {
-      System.out.println("Usage: jlox [script]");
+    String allocationReport = System.getProperty("jlox.allocationReport");
+    if (allocationReport == null) {
+      dispatch(args);
+      return;
+    }
+
+    reportAllocations(allocationReport);
+    try {
+      dispatch(args);
+    } finally {
+      mainAllocated = threads().getCurrentThreadAllocatedBytes();
+    }
+  }
+
+  private static void dispatch(String[] args) throws IOException {
+    if (args.length > 0 && args[0].equals("--batch")) {
+      System.exit(BatchRunner.run(Arrays.copyOfRange(args, 1, args.length)));
+    } else if (args.length > 0 && args[0].equals("--daemon")) {
+      System.exit(Daemon.run(Arrays.copyOfRange(args, 1, args.length)));
+    } else if (args.length == 3 && args[0].equals("--dump-image")) {
+      dumpImage(args[1], args[2]);
+    } else if (args.length == 2 && args[0].equals("--run-image")) {
+      runImage(args[1]);
+    } else if (args.length == 3 && args[0].equals("--snapshot")) {
+      snapshot(args[1], args[2]);
+    } else if ((args.length == 2 || args.length == 3) && args[0].equals("--resume")) {
+      resume(args[1]);
+      if (args.length == 3) runFile(args[2]);
+      else runPrompt();
+    } else if (args.length >= 3 && args[0].equals("--profile")) {
+      profile(Arrays.copyOfRange(args, 1, args.length));
+    } else if (args.length > 1) {
+      System.out.println("Usage: jlox [script] | jlox --batch [--jobs n] path... | jlox --daemon [socket]");
+      System.out.println("       jlox --dump-image script image | jlox --run-image image");
+      System.out.println("       jlox --snapshot script heap | jlox --resume heap [script]");
+      System.out.println("       jlox --profile [--rate hz] output script");
       System.exit(64); 
     } else if (args.length == 1) {
       runFile(args[0]);
@@ -29,8 +73,115 @@ public class Lox {
 
   private static void runFile(String path) throws IOException {
     byte[] bytes = Files.readAllBytes(Paths.get(path));
-    run(new String(bytes, Charset.defaultCharset()));
+    try {
+      run(new String(bytes, Charset.defaultCharset()));
+      interpreter.awaitSpawned();
+    } finally {
+      interpreter.out.flush();
+    }
+    if (hadError) System.exit(65);
+    if (hadRuntimeError) System.exit(70);
+  }
+
+  // Runs a script under the sampling profiler, writing collapsed stacks
+  // to output. Samples 1000 times a second unless --rate says otherwise.
+  private static void profile(String[] args) throws IOException {
+    int rate = 1000;
+    int i = 0;
+    if (args[0].equals("--rate") && args.length == 4) {
+      rate = Integer.parseInt(args[1]);
+      i = 2;
+    }
+    if (args.length != i + 2 || rate <= 0) {
+      System.out.println("Usage: jlox --profile [--rate hz] output script");
+      System.exit(64);
+    }
+
+    byte[] bytes = Files.readAllBytes(Paths.get(args[i + 1]));
+    Profiler profiler = new Profiler(rate);
+    interpreter.frames = profiler.register();
+    interpreter.frames.push("<script>");
+    try {
+      run(new String(bytes, Charset.defaultCharset()));
+      interpreter.awaitSpawned();
+    } finally {
+      interpreter.frames.pop();
+      interpreter.out.flush();
+      profiler.finish(Paths.get(args[i]));
+    }
+    if (hadError) System.exit(65);
+    if (hadRuntimeError) System.exit(70);
+  }
+
+  // Writes the bytes allocated by the main thread and the threads still
+  // alive to path when the process exits, for harnesses comparing
+  // implementations. Spawned threads that already finished aren't counted.
+  private static void reportAllocations(String path) {
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+      long total = mainAllocated;
+      for (long allocated : threads().getThreadAllocatedBytes(threads().getAllThreadIds())) {
+        if (allocated > 0) total += allocated;
+      }
+      try {
+        Files.write(Paths.get(path), Long.toString(total).getBytes());
+      } catch (IOException e) {
+        // Nothing useful to do this late.
+      }
+    }));
+  }
+
+  private static com.sun.management.ThreadMXBean threads() {
+    return (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+  }
+
+  private static void snapshot(String path, String heap) throws IOException {
+    byte[] bytes = Files.readAllBytes(Paths.get(path));
+    try {
+      run(new String(bytes, Charset.defaultCharset()));
+      interpreter.awaitSpawned();
+    } finally {
+      interpreter.out.flush();
+    }
+    if (hadError) System.exit(65);
+    if (hadRuntimeError) System.exit(70);
+    try {
+      HeapImage.write(interpreter, Paths.get(heap));
+    } catch (NotSerializableException e) {
+      System.err.println("Can't snapshot a heap holding " + e.getMessage() + ".");
+      System.exit(70);
+    } catch (IOException e) {
+      System.err.println("Can't snapshot the heap: " + e.getMessage());
+      System.exit(74);
+    }
+  }
+
+  private static void resume(String heap) {
+    try {
+      HeapImage.read(interpreter, Paths.get(heap));
+    } catch (IOException e) {
+      System.err.println("Can't resume from " + heap + ": " + e.getMessage());
+      System.exit(65);
+    }
+  }
+
+  private static void dumpImage(String path, String image) throws IOException {
+    byte[] bytes = Files.readAllBytes(Paths.get(path));
+    List<Stmt> statements = ParallelParser.parse(new String(bytes, Charset.defaultCharset()));
+    if (!hadError) new Resolver(interpreter).resolve(statements);
     if (hadError) System.exit(65);
+
+    AstImage.write(statements, Paths.get(image));
+    AstImage.loadRuntimeClasses();
+  }
+
+  private static void runImage(String image) throws IOException {
+    List<Stmt> statements = AstImage.read(Paths.get(image));
+    try {
+      interpret(statements);
+      interpreter.awaitSpawned();
+    } finally {
+      interpreter.out.flush();
+    }
     if (hadRuntimeError) System.exit(70);
   }
 
@@ -40,6 +191,7 @@ public class Lox {
     BufferedReader reader = new BufferedReader(input);
 
     for (;;) { 
+      interpreter.out.flush();
       System.out.print("> ");
       String line = reader.readLine();
       if (line == null) break;
@@ -50,33 +202,57 @@ public class Lox {
 
   private static void run(String source)
   {
-    Scanner scanner = new Scanner(source);
-    List<Token> tokens = scanner.scanTokens();
-
-    Parser parser = new Parser(tokens);
-    List<Stmt> statements = parser.parse();
+    InterpreterMetrics metrics = interpreter.metrics;
+    long start = metrics != null ? System.nanoTime() : 0;
+    List<Stmt> statements = ParallelParser.parse(source);
+    if (metrics != null) metrics.parseNanos.add(System.nanoTime() - start);
     if (hadError) return;
     //System.out.println(new AstPrinter().print(expression));
     Resolver resolver = new Resolver(interpreter);
+    if (metrics != null) start = System.nanoTime();
     resolver.resolve(statements);
+    if (metrics != null) metrics.resolveNanos.add(System.nanoTime() - start);
 
     if (hadError) return;
+    interpret(statements);
+  }
+
+  private static void interpret(List<Stmt> statements)
+  {
+    if (launchTime != 0) {
+      System.err.println("time-to-first-statement: " + (System.currentTimeMillis() - launchTime) + " ms");
+    }
     interpreter.interpret(statements);
   }
 
   public static void error(Token token, String message)
   {
-    if (token.type == TokenType.EOF) {
-      report(token.line, " at end", message);
-    } else {
-      report(token.line, " at '" + token.lexeme + "'", message);
-    }
+    reporter.error(token, message);
   }
 
   public static void runtimeError(RunTimeError error)
   {
-    System.err.println(error.getMessage() + 
-    "\nline[" + error.token.line + "]");
+    if (LoxEvents.ENABLED)
+    {
+      LoxEvents.RuntimeError event = new LoxEvents.RuntimeError();
+      if (event.isEnabled())
+      {
+        event.message = error.getMessage();
+        event.line = error.token != null ? error.token.line : -1;
+        event.commit();
+      }
+    }
+    interpreter.out.flush();
+    System.err.println(error.report());
+    hadRuntimeError = true;
+  }
+
+  // Reports the error a spawned thread died with while nobody was joining
+  // it. The main output buffer belongs to another thread, so unlike
+  // runtimeError this leaves it alone.
+  static synchronized void threadError(RunTimeError error)
+  {
+    System.err.println(error.report());
     hadRuntimeError = true;
   }
 
@@ -87,6 +263,7 @@ public class Lox {
 
   private static void report(int line, String where, String message)
   {
+    interpreter.out.flush();
     System.err.println( "[line " + line + "] Error" + where + ": " + message);
     hadError = true;
   }
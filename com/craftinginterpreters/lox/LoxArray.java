@@ -0,0 +1,201 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Arrays;
+
+// A growable Lox array. While every element is a number the elements live
+// unboxed in a double[]; the first non-number stored widens the array to
+// an Object[] for good. Capacity doubles as elements are pushed, so
+// appends are amortized O(1).
+public class LoxArray {
+    private static final int MIN_CAPACITY = 8;
+
+    private double[] numbers;
+    private Object[] values;
+    private int count;
+
+    public LoxArray(int length)
+    {
+        this.numbers = new double[Math.max(length, MIN_CAPACITY)];
+        this.count = length;
+    }
+
+    LoxArray(double[] numbers, int count)
+    {
+        this.numbers = numbers;
+        this.count = count;
+    }
+
+    LoxArray(Object[] values, int count)
+    {
+        this.values = values;
+        this.count = count;
+    }
+
+    public int length()
+    {
+        return count;
+    }
+
+    boolean isNumeric()
+    {
+        return numbers != null;
+    }
+
+    // What widening allocated: the Object[] and a box for every number.
+    long widenedBytes()
+    {
+        return Budget.Meter.ARRAY + (long)capacity() * Budget.Meter.ELEMENT + (long)count * Budget.Meter.BOXED;
+    }
+
+    public Object get(Token bracket, Object index)
+    {
+        int i = checkIndex(bracket, index);
+        if (numbers != null) return numbers[i];
+        return values[i];
+    }
+
+    public void set(Token bracket, Object index, Object value)
+    {
+        int i = checkIndex(bracket, index);
+        store(i, value);
+    }
+
+    public void push(Object value)
+    {
+        if (count == capacity()) grow(count + 1);
+        store(count++, value);
+    }
+
+    public Object pop(Token token)
+    {
+        if (count == 0) throw new RunTimeError(token, "Can't pop from an empty array.");
+        count--;
+        if (numbers != null) return numbers[count];
+        Object value = values[count];
+        values[count] = null;
+        return value;
+    }
+
+    public void fill(Object value)
+    {
+        if (numbers != null && value instanceof Double)
+        {
+            Arrays.fill(numbers, 0, count, (double)value);
+            return;
+        }
+        widen();
+        Arrays.fill(values, 0, count, value);
+    }
+
+    // Copies count elements from src starting at from into dst starting at
+    // to. Overlapping ranges in the same array behave like memmove.
+    public static void copy(Token token, LoxArray src, int from, LoxArray dst, int to, int count)
+    {
+        if (count < 0 || from < 0 || to < 0 || from > src.count - count || to > dst.count - count)
+        {
+            throw new RunTimeError(token, "Copy range out of bounds.");
+        }
+        if (src.numbers != null && dst.numbers != null)
+        {
+            System.arraycopy(src.numbers, from, dst.numbers, to, count);
+            return;
+        }
+        dst.widen();
+        if (src.numbers != null)
+        {
+            for (int i = 0; i < count; i++) dst.values[to + i] = src.numbers[from + i];
+        }
+        else
+        {
+            System.arraycopy(src.values, from, dst.values, to, count);
+        }
+    }
+
+    // Numbers sort numerically and strings lexicographically. Anything
+    // else, or a mix of the two, can't be ordered.
+    public void sort(Token token)
+    {
+        if (numbers != null)
+        {
+            Arrays.sort(numbers, 0, count);
+            return;
+        }
+        boolean allNumbers = true;
+        boolean allStrings = true;
+        for (int i = 0; i < count; i++)
+        {
+            allNumbers &= values[i] instanceof Double;
+            allStrings &= values[i] instanceof String;
+        }
+        if (!allNumbers && !allStrings)
+        {
+            throw new RunTimeError(token, "Can only sort arrays of numbers or of strings.");
+        }
+        Arrays.sort(values, 0, count);
+    }
+
+    private void store(int i, Object value)
+    {
+        if (numbers != null)
+        {
+            if (value instanceof Double)
+            {
+                numbers[i] = (double)value;
+                return;
+            }
+            widen();
+        }
+        values[i] = value;
+    }
+
+    private void widen()
+    {
+        if (numbers == null) return;
+        values = new Object[numbers.length];
+        for (int i = 0; i < count; i++) values[i] = numbers[i];
+        numbers = null;
+    }
+
+    private int capacity()
+    {
+        return numbers != null ? numbers.length : values.length;
+    }
+
+    private void grow(int needed)
+    {
+        int capacity = Math.max(capacity() * 2, Math.max(needed, MIN_CAPACITY));
+        if (numbers != null) numbers = Arrays.copyOf(numbers, capacity);
+        else values = Arrays.copyOf(values, capacity);
+    }
+
+    private int checkIndex(Token bracket, Object index)
+    {
+        if (!(index instanceof Double))
+        {
+            throw new RunTimeError(bracket, "Array index must be a number.");
+        }
+        double d = (double)index;
+        int i = (int)d;
+        if (i != d)
+        {
+            throw new RunTimeError(bracket, "Array index must be an integer.");
+        }
+        if (i < 0 || i >= count)
+        {
+            throw new RunTimeError(bracket, "Array index " + i + " out of bounds for length " + count + ".");
+        }
+        return i;
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder builder = new StringBuilder("[");
+        for (int i = 0; i < count; i++)
+        {
+            if (i > 0) builder.append(", ");
+            builder.append(Interpreter.stringify(numbers != null ? (Object)numbers[i] : values[i]));
+        }
+        return builder.append("]").toString();
+    }
+}
@@ -9,8 +9,8 @@ import java.util.Map;
 public class LoxClass implements LoxCallable {
     
     public final String name;
-    private final Map<String, LoxFunction> methods;
-    private final List<LoxClass> superClasses;
+    final Map<String, LoxFunction> methods;
+    final List<LoxClass> superClasses;
 
     LoxClass(String name, List<LoxClass> superClasses, Map<String, LoxFunction> methods)
     {
@@ -28,12 +28,26 @@ public class LoxClass implements LoxCallable {
     @Override
     public Object call(Interpreter interpreter, List<Object> arguments)
     {
+        LoxEvents.Instantiate event = LoxEvents.ENABLED ? new LoxEvents.Instantiate() : null;
+        if (event != null) event.begin();
         LoxInstance instance = new LoxInstance(this);
+        if (interpreter.metrics != null) interpreter.metrics.instances.increment();
+        if (interpreter.meter != null) interpreter.meter.allocate(null, Budget.Meter.INSTANCE);
         LoxFunction initializer = findMethod("init");
         if (initializer != null)
         {
+            if (interpreter.meter != null) interpreter.meter.allocate(null, Budget.Meter.BOUND_METHOD);
             initializer.bind(instance).call(interpreter, arguments);
         }
+        if (event != null)
+        {
+            event.end();
+            if (event.shouldCommit())
+            {
+                event.className = name;
+                event.commit();
+            }
+        }
         return instance;
     }
 
@@ -45,6 +59,28 @@ public class LoxClass implements LoxCallable {
         return 0;
     }
 
+    // A method found on a class, cached by the Expr.Get that looked it up.
+    // Class and method travel together so a racing thread never sees one
+    // without the other.
+    static final class Lookup
+    {
+        // Expr.Get.state: nothing cached yet, a method cached for one
+        // receiver class, or a second class seen, after which the site
+        // looks methods up every time.
+        static final byte UNSEEN = 0;
+        static final byte MONOMORPHIC = 1;
+        static final byte POLYMORPHIC = 2;
+
+        final LoxClass klass;
+        final LoxFunction method;
+
+        Lookup(LoxClass klass, LoxFunction method)
+        {
+            this.klass = klass;
+            this.method = method;
+        }
+    }
+
     public LoxFunction findMethod(String name)
     {
         if (methods.containsKey(name)) return methods.get(name);
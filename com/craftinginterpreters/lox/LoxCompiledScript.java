@@ -0,0 +1,227 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import javax.script.Bindings;
+import javax.script.CompiledScript;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptException;
+
+// A scanned, parsed and resolved program. Each eval() borrows an execution
+// context from a pool (creating one when the pool is empty), defines the
+// context's bindings as globals, runs the program with print output going
+// to the context's writer, and returns the context with its globals reset.
+// Concurrent evals never share a context. An eval waits for the threads
+// its script spawned; if any of them failed unjoined, the first failure
+// becomes the eval's ScriptException and the rest are suppressed on it.
+//
+// Under -Djlox.jmx the program's interpreter registers an MBean like any
+// other. It is unregistered once the script becomes unreachable, so hosts
+// that compile many short-lived scripts don't pile them up.
+public class LoxCompiledScript extends CompiledScript {
+    private static final int OUTPUT_CAPACITY = 8192;
+    private static final Cleaner cleaner = InterpreterMetrics.AUTO ? Cleaner.create() : null;
+
+    private final LoxScriptEngine engine;
+    private final Interpreter program;
+    private final List<Stmt> statements;
+    private final String fileName;
+    private final Queue<Context> pool = new ConcurrentLinkedQueue<>();
+
+    LoxCompiledScript(LoxScriptEngine engine, Interpreter program, List<Stmt> statements, String fileName)
+    {
+        this.engine = engine;
+        this.program = program;
+        this.statements = statements;
+        this.fileName = fileName;
+        if (program.metrics != null) cleaner.register(this, program.metrics::unregister);
+    }
+
+    // Unregisters the program's metrics now rather than when the script
+    // is collected, for a script the engine compiled for a single eval.
+    void release()
+    {
+        if (program.metrics != null) program.metrics.unregister();
+    }
+
+    @Override
+    public Object eval(ScriptContext context) throws ScriptException
+    {
+        Context pooled = pool.poll();
+        if (pooled == null) pooled = new Context(program);
+
+        Interpreter interpreter = pooled.interpreter;
+        pooled.channel.writer = context.getWriter();
+        try
+        {
+            defineBindings(interpreter, context.getBindings(ScriptContext.GLOBAL_SCOPE));
+            defineBindings(interpreter, context.getBindings(ScriptContext.ENGINE_SCOPE));
+            Object result = interpreter.run(statements);
+            interpreter.awaitSpawned();
+            interpreter.out.flush();
+            RunTimeError failed = pooled.threadErrors.poll();
+            if (failed != null) throw scriptException(failed, pooled, context);
+            return result;
+        }
+        catch (RunTimeError error)
+        {
+            interpreter.awaitSpawned();
+            interpreter.out.flush();
+            throw scriptException(error, pooled, context);
+        }
+        catch (UncheckedIOException e)
+        {
+            throw new ScriptException(e);
+        }
+        finally
+        {
+            interpreter.awaitSpawned();
+            pooled.threadErrors.clear();
+            pooled.channel.reset();
+            interpreter.reset();
+            pool.offer(pooled);
+        }
+    }
+
+    private ScriptException scriptException(RunTimeError error, Context pooled, ScriptContext context)
+    {
+        String name = fileName != null ? fileName : LoxScriptEngine.fileName(context);
+        ScriptException exception = new ScriptException(error.report(), name,
+                                                        error.token != null ? error.token.line : -1);
+        exception.initCause(error);
+        RunTimeError other;
+        while ((other = pooled.threadErrors.poll()) != null) exception.addSuppressed(other);
+        return exception;
+    }
+
+    @Override
+    public ScriptEngine getEngine()
+    {
+        return engine;
+    }
+
+    static OutputBuffer discardOutput()
+    {
+        return new OutputBuffer(new WriterChannel(), OUTPUT_CAPACITY);
+    }
+
+    private static void defineBindings(Interpreter interpreter, Bindings bindings)
+    {
+        if (bindings == null) return;
+        for (Map.Entry<String, Object> entry : bindings.entrySet())
+        {
+            if (!isIdentifier(entry.getKey())) continue;
+            interpreter.globals.define(entry.getKey(), toLox(entry.getValue()));
+        }
+    }
+
+    private static Object toLox(Object value)
+    {
+        if (value instanceof Number) return ((Number)value).doubleValue();
+        if (value instanceof Character) return value.toString();
+        return value;
+    }
+
+    private static boolean isIdentifier(String name)
+    {
+        if (name.isEmpty() || !Character.isLetter(name.charAt(0))) return false;
+        for (int i = 1; i < name.length(); i++)
+        {
+            char c = name.charAt(i);
+            if (!Character.isLetterOrDigit(c) && c != '_') return false;
+        }
+        return true;
+    }
+
+    private static class Context
+    {
+        final WriterChannel channel = new WriterChannel();
+        // Failures of spawned threads nobody joined, from this context's
+        // current eval only.
+        final Queue<RunTimeError> threadErrors = new ConcurrentLinkedQueue<>();
+        final Interpreter interpreter;
+
+        Context(Interpreter program)
+        {
+            this.interpreter = program.newContext(new OutputBuffer(channel, OUTPUT_CAPACITY));
+            this.interpreter.threadErrors = threadErrors::add;
+        }
+    }
+
+    // Adapts the buffered print output to whichever Writer the current
+    // ScriptContext supplies. Output is dropped while no writer is set.
+    // One decoder runs across writes, so a character whose bytes straddle
+    // two buffers is carried over rather than split.
+    private static class WriterChannel implements WritableByteChannel
+    {
+        Writer writer;
+        private final CharsetDecoder decoder = Charset.defaultCharset().newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        private final ByteBuffer bytes = ByteBuffer.allocate(OUTPUT_CAPACITY);
+        private final CharBuffer chars = CharBuffer.allocate(OUTPUT_CAPACITY);
+
+        @Override
+        public int write(ByteBuffer src) throws IOException
+        {
+            int count = src.remaining();
+            if (writer == null)
+            {
+                src.position(src.limit());
+                return count;
+            }
+            while (src.hasRemaining())
+            {
+                ByteBuffer chunk = src.slice();
+                chunk.limit(Math.min(chunk.remaining(), bytes.remaining()));
+                bytes.put(chunk);
+                src.position(src.position() + chunk.limit());
+
+                bytes.flip();
+                CoderResult result;
+                do
+                {
+                    result = decoder.decode(bytes, chars, false);
+                    chars.flip();
+                    writer.write(chars.array(), 0, chars.limit());
+                    chars.clear();
+                }
+                while (result.isOverflow());
+                // Whatever is left is the start of a character.
+                bytes.compact();
+            }
+            writer.flush();
+            return count;
+        }
+
+        // Detaches the writer and drops any partial character, so the next
+        // eval starts clean.
+        void reset()
+        {
+            writer = null;
+            bytes.clear();
+            decoder.reset();
+        }
+
+        @Override
+        public boolean isOpen() { return true; }
+
+        @Override
+        public void close() {}
+    }
+}
@@ -0,0 +1,117 @@
+package com.craftinginterpreters.lox;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+// JDK Flight Recorder events for Lox. They show up under "Lox" in any
+// recording and are switched on and off (and call thresholds tuned) with
+// ordinary JFR settings, e.g. lox.Call#threshold=1 ms in a .jfc file.
+// Java stack traces would only show interpreter frames, so none of them
+// record one.
+//
+// Loading jdk.jfr costs a short run a few hundred milliseconds, so event
+// sites only touch these classes when ENABLED: when the JVM was started
+// with a recording (JFR has set jdk.jfr.repository by the time main runs)
+// or -Djlox.jfr=true asks for them, say for a recording started later
+// with jcmd.
+final class LoxEvents {
+    static final boolean ENABLED =
+        Boolean.getBoolean("jlox.jfr") || System.getProperty("jdk.jfr.repository") != null;
+
+    private LoxEvents() {}
+
+    @Name("lox.Scan")
+    @Label("Scan")
+    @Category("Lox")
+    @Description("Turning source text into tokens")
+    @StackTrace(false)
+    static class Scan extends Event
+    {
+        @Label("Characters")
+        int characters;
+
+        @Label("Tokens")
+        int tokens;
+    }
+
+    @Name("lox.Parse")
+    @Label("Parse")
+    @Category("Lox")
+    @Description("Turning tokens into statements")
+    @StackTrace(false)
+    static class Parse extends Event
+    {
+        @Label("Tokens")
+        int tokens;
+
+        @Label("Statements")
+        int statements;
+    }
+
+    @Name("lox.Resolve")
+    @Label("Resolve")
+    @Category("Lox")
+    @Description("Resolving variable scopes")
+    @StackTrace(false)
+    static class Resolve extends Event
+    {
+        @Label("Statements")
+        int statements;
+    }
+
+    @Name("lox.Interpret")
+    @Label("Interpret")
+    @Category("Lox")
+    @Description("Executing top-level statements")
+    @StackTrace(false)
+    static class Interpret extends Event
+    {
+        @Label("Statements")
+        int statements;
+    }
+
+    @Name("lox.Call")
+    @Label("Function Call")
+    @Category("Lox")
+    @Description("A Lox function or lambda call that ran longer than the threshold")
+    @Threshold("10 ms")
+    @StackTrace(false)
+    static class Call extends Event
+    {
+        @Label("Function")
+        String function;
+
+        @Label("Line")
+        int line;
+    }
+
+    @Name("lox.Instantiate")
+    @Label("Instantiate")
+    @Category("Lox")
+    @Description("Creating an instance of a Lox class, including its initializer")
+    @StackTrace(false)
+    static class Instantiate extends Event
+    {
+        @Label("Class")
+        String className;
+    }
+
+    @Name("lox.RuntimeError")
+    @Label("Runtime Error")
+    @Category("Lox")
+    @Description("A runtime error reported to the user")
+    @StackTrace(false)
+    static class RuntimeError extends Event
+    {
+        @Label("Message")
+        String message;
+
+        @Label("Line")
+        int line;
+    }
+}
@@ -8,9 +8,9 @@ import java.util.List;
 
 public class LoxFunction implements LoxCallable
 {
-    private final Stmt.Function declaration;
-    private final Environment closure;
-    private final boolean isInitializer;
+    final Stmt.Function declaration;
+    final Environment closure;
+    final boolean isInitializer;
     public final boolean isGetter;
 
     LoxFunction(Stmt.Function declaration, Environment closure, boolean isInitializer, boolean isGetter)
@@ -35,6 +35,23 @@ public class LoxFunction implements LoxCallable
         {
             environment.define(declaration.params.get(i).lexeme, arguments.get(i));
         }
+        Budget.Meter meter = interpreter.meter;
+        if (meter != null)
+        {
+            meter.allocate(declaration.name, Budget.Meter.ENVIRONMENT + arguments.size() * (long)Budget.Meter.BINDING);
+            meter.enter(declaration, declaration.name);
+        }
+        Profiler.Frames frames = interpreter.frames;
+        if (frames != null) frames.push(declaration);
+        InterpreterMetrics metrics = interpreter.metrics;
+        if (metrics != null)
+        {
+            metrics.calls.increment();
+            metrics.environments.increment();
+            metrics.depth.increment();
+        }
+        LoxEvents.Call event = LoxEvents.ENABLED ? new LoxEvents.Call() : null;
+        if (event != null) event.begin();
         try
         {
             interpreter.executeBlock(declaration.body, environment);
@@ -44,6 +61,22 @@ public class LoxFunction implements LoxCallable
             if (isInitializer) return closure.getAt(0, "this");
             return returnValue.value;
         }
+        finally
+        {
+            if (meter != null) meter.exit();
+            if (frames != null) frames.pop();
+            if (metrics != null) metrics.depth.decrement();
+            if (event != null)
+            {
+                event.end();
+                if (event.shouldCommit())
+                {
+                    event.function = declaration.name.lexeme;
+                    event.line = declaration.name.line;
+                    event.commit();
+                }
+            }
+        }
 
         if (isInitializer) return closure.getAt(0, "this");
         return null;
@@ -7,8 +7,8 @@ import com.craftinginterpreters.lox.LoxFunction;
 import com.craftinginterpreters.lox.Token;
 
 public class LoxInstance {
-    private LoxClass klass;
-    private final Map<String, Object> fields = new HashMap<>();
+    LoxClass klass;
+    final Map<String, Object> fields = new HashMap<>();
     public LoxInstance(LoxClass klass)
     {
         this.klass = klass;
@@ -33,8 +33,44 @@ public class LoxInstance {
         throw new RunTimeError(name, "Undefined property '" + name.lexeme + "'.");
     }
 
-    public void set(Token name, Object value)
+    // get() through the site's inline cache. The lookup is reused while
+    // receivers keep the same class; a second class makes the site
+    // polymorphic and it looks methods up every time from then on.
+    // Binding a method is charged to meter, if any.
+    Object get(Expr.Get site, Budget.Meter meter)
     {
-        fields.put(name.lexeme, value);
+        String name = site.name.lexeme;
+        Object value = fields.get(name);
+        if (value != null || fields.containsKey(name)) return value;
+
+        LoxClass.Lookup lookup = site.lookup;
+        LoxFunction method;
+        if (lookup != null && lookup.klass == klass)
+        {
+            method = lookup.method;
+        }
+        else
+        {
+            method = klass.findMethod(name);
+            if (method == null) throw new RunTimeError(site.name, "Undefined property '" + name + "'.");
+            if (site.state == LoxClass.Lookup.UNSEEN)
+            {
+                site.lookup = new LoxClass.Lookup(klass, method);
+                site.state = LoxClass.Lookup.MONOMORPHIC;
+            }
+            else if (site.state == LoxClass.Lookup.MONOMORPHIC)
+            {
+                site.lookup = null;
+                site.state = LoxClass.Lookup.POLYMORPHIC;
+            }
+        }
+        if (meter != null) meter.allocate(site.name, Budget.Meter.BOUND_METHOD);
+        return method.bind(this);
+    }
+
+    // Returns whether the field is new (or held nil).
+    public boolean set(Token name, Object value)
+    {
+        return fields.put(name.lexeme, value) == null;
     }
 }
@@ -8,8 +8,8 @@ import java.util.List;
 
 public class LoxLambda implements LoxCallable
 {
-    private final Expr.Function declaration;
-    private final Environment closure;
+    final Expr.Function declaration;
+    final Environment closure;
 
     LoxLambda(Expr.Function declaration, Environment closure)
     {
@@ -31,6 +31,23 @@ public class LoxLambda implements LoxCallable
         {
             environment.define(declaration.params.get(i).lexeme, arguments.get(i));
         }
+        Budget.Meter meter = interpreter.meter;
+        if (meter != null)
+        {
+            meter.allocate(declaration.keyword, Budget.Meter.ENVIRONMENT + arguments.size() * (long)Budget.Meter.BINDING);
+            meter.enter(declaration, declaration.keyword);
+        }
+        Profiler.Frames frames = interpreter.frames;
+        if (frames != null) frames.push(declaration);
+        InterpreterMetrics metrics = interpreter.metrics;
+        if (metrics != null)
+        {
+            metrics.calls.increment();
+            metrics.environments.increment();
+            metrics.depth.increment();
+        }
+        LoxEvents.Call event = LoxEvents.ENABLED ? new LoxEvents.Call() : null;
+        if (event != null) event.begin();
         try
         {
             interpreter.executeBlock(declaration.body, environment);
@@ -39,6 +56,22 @@ public class LoxLambda implements LoxCallable
         {
             return returnValue.value;
         }
+        finally
+        {
+            if (meter != null) meter.exit();
+            if (frames != null) frames.pop();
+            if (metrics != null) metrics.depth.decrement();
+            if (event != null)
+            {
+                event.end();
+                if (event.shouldCommit())
+                {
+                    event.function = "<lambda>";
+                    event.line = declaration.keyword.line;
+                    event.commit();
+                }
+            }
+        }
         return null;
     }
 
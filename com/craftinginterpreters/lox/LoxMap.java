@@ -0,0 +1,260 @@
+package com.craftinginterpreters.lox;
+
+
+// A Lox map: the open-addressing table from clox's table.c over parallel
+// arrays. Each slot has a kind (empty, tombstone, number key or object
+// key); number keys sit unboxed in numberKeys, every other key in keys.
+// Deletes leave tombstones so probe sequences stay intact, and like clox
+// the load count includes them, so a table full of tombstones is rebuilt
+// rather than probed forever.
+public class LoxMap {
+    private static final double MAX_LOAD = 0.75;
+    private static final byte EMPTY = 0, TOMBSTONE = 1, NUMBER = 2, OBJECT = 3;
+
+    private byte[] kinds = new byte[0];
+    private double[] numberKeys = new double[0];
+    private Object[] keys = new Object[0];
+    private Object[] values = new Object[0];
+    // Live entries plus tombstones.
+    private int count;
+    // Live entries only.
+    private int size;
+    // Slots of every table built so far, for charging rebuilds.
+    private long slotsAllocated;
+
+    public int size()
+    {
+        return size;
+    }
+
+    long slotsAllocated()
+    {
+        return slotsAllocated;
+    }
+
+    public Object get(Token token, Object key)
+    {
+        int slot = slot(token, key);
+        if (slot < 0 || kinds[slot] < NUMBER)
+        {
+            throw new RunTimeError(token, "Undefined key '" + Interpreter.stringify(key) + "'.");
+        }
+        return values[slot];
+    }
+
+    public boolean has(Token token, Object key)
+    {
+        int slot = slot(token, key);
+        return slot >= 0 && kinds[slot] >= NUMBER;
+    }
+
+    public void set(Token token, Object key, Object value)
+    {
+        checkKey(token, key);
+        if (count + 1 > kinds.length * MAX_LOAD)
+        {
+            // Only grow if the live entries need it, otherwise rebuilding
+            // at the same size is enough to clear out the tombstones.
+            int capacity = size + 1 > kinds.length * MAX_LOAD ? Math.max(8, kinds.length * 2) : kinds.length;
+            adjustCapacity(capacity);
+        }
+
+        int slot;
+        if (key instanceof Double)
+        {
+            double number = (double)key + 0.0;
+            slot = findNumber(number);
+            numberKeys[slot] = number;
+            if (kinds[slot] < NUMBER) insert(slot, NUMBER);
+        }
+        else
+        {
+            slot = findObject(key);
+            keys[slot] = key;
+            if (kinds[slot] < NUMBER) insert(slot, OBJECT);
+        }
+        values[slot] = value;
+    }
+
+    public boolean remove(Token token, Object key)
+    {
+        int slot = slot(token, key);
+        if (slot < 0 || kinds[slot] < NUMBER) return false;
+        kinds[slot] = TOMBSTONE;
+        keys[slot] = null;
+        values[slot] = null;
+        size--;
+        return true;
+    }
+
+    LoxArray keys()
+    {
+        boolean numeric = true;
+        for (int i = 0; i < kinds.length; i++)
+        {
+            if (kinds[i] == OBJECT) numeric = false;
+        }
+
+        int n = 0;
+        if (numeric)
+        {
+            double[] result = new double[Math.max(size, 1)];
+            for (int i = 0; i < kinds.length; i++)
+            {
+                if (kinds[i] == NUMBER) result[n++] = numberKeys[i];
+            }
+            return new LoxArray(result, n);
+        }
+
+        Object[] result = new Object[Math.max(size, 1)];
+        for (int i = 0; i < kinds.length; i++)
+        {
+            if (kinds[i] >= NUMBER) result[n++] = key(i);
+        }
+        return new LoxArray(result, n);
+    }
+
+    LoxArray values()
+    {
+        Object[] result = new Object[Math.max(size, 1)];
+        int n = 0;
+        for (int i = 0; i < kinds.length; i++)
+        {
+            if (kinds[i] >= NUMBER) result[n++] = values[i];
+        }
+        return new LoxArray(result, n);
+    }
+
+    private Object key(int slot)
+    {
+        return kinds[slot] == NUMBER ? (Object)numberKeys[slot] : keys[slot];
+    }
+
+    private void insert(int slot, byte kind)
+    {
+        if (kinds[slot] == EMPTY) count++;
+        kinds[slot] = kind;
+        size++;
+    }
+
+    // The slot holding key, or -1 if the table is empty.
+    private int slot(Token token, Object key)
+    {
+        checkKey(token, key);
+        if (kinds.length == 0) return -1;
+        if (key instanceof Double) return findNumber((double)key + 0.0);
+        return findObject(key);
+    }
+
+    private void checkKey(Token token, Object key)
+    {
+        if (key == null) throw new RunTimeError(token, "Map keys can't be nil.");
+        if (key instanceof Double && Double.isNaN((double)key))
+        {
+            throw new RunTimeError(token, "Map keys can't be NaN.");
+        }
+    }
+
+    // Both finds return the key's slot if present, otherwise the first
+    // tombstone passed on the way to an empty slot, otherwise that empty
+    // slot, just like findEntry() in table.c.
+    private int findNumber(double key)
+    {
+        int mask = kinds.length - 1;
+        long bits = Double.doubleToLongBits(key);
+        int index = mix((int)(bits ^ (bits >>> 32))) & mask;
+        int tombstone = -1;
+        for (;;)
+        {
+            byte kind = kinds[index];
+            if (kind == EMPTY) return tombstone != -1 ? tombstone : index;
+            if (kind == TOMBSTONE)
+            {
+                if (tombstone == -1) tombstone = index;
+            }
+            else if (kind == NUMBER && numberKeys[index] == key)
+            {
+                return index;
+            }
+            index = (index + 1) & mask;
+        }
+    }
+
+    private int findObject(Object key)
+    {
+        int mask = kinds.length - 1;
+        int index = mix(key.hashCode()) & mask;
+        int tombstone = -1;
+        for (;;)
+        {
+            byte kind = kinds[index];
+            if (kind == EMPTY) return tombstone != -1 ? tombstone : index;
+            if (kind == TOMBSTONE)
+            {
+                if (tombstone == -1) tombstone = index;
+            }
+            else if (kind == OBJECT && keys[index].equals(key))
+            {
+                return index;
+            }
+            index = (index + 1) & mask;
+        }
+    }
+
+    private static int mix(int hash)
+    {
+        hash *= 0x9e3779b9;
+        return hash ^ (hash >>> 16);
+    }
+
+    private void adjustCapacity(int capacity)
+    {
+        byte[] oldKinds = kinds;
+        double[] oldNumberKeys = numberKeys;
+        Object[] oldKeys = keys;
+        Object[] oldValues = values;
+
+        slotsAllocated += capacity;
+        kinds = new byte[capacity];
+        numberKeys = new double[capacity];
+        keys = new Object[capacity];
+        values = new Object[capacity];
+        count = 0;
+        for (int i = 0; i < oldKinds.length; i++)
+        {
+            int slot;
+            if (oldKinds[i] == NUMBER)
+            {
+                slot = findNumber(oldNumberKeys[i]);
+                numberKeys[slot] = oldNumberKeys[i];
+            }
+            else if (oldKinds[i] == OBJECT)
+            {
+                slot = findObject(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+            }
+            else
+            {
+                continue;
+            }
+            kinds[slot] = oldKinds[i];
+            values[slot] = oldValues[i];
+            count++;
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder builder = new StringBuilder("{");
+        boolean first = true;
+        for (int i = 0; i < kinds.length; i++)
+        {
+            if (kinds[i] < NUMBER) continue;
+            if (!first) builder.append(", ");
+            first = false;
+            builder.append(Interpreter.stringify(key(i))).append(": ").append(Interpreter.stringify(values[i]));
+        }
+        return builder.append("}").toString();
+    }
+}
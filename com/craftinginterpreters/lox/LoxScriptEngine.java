@@ -0,0 +1,165 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.List;
+
+import javax.script.AbstractScriptEngine;
+import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
+import javax.script.ScriptException;
+import javax.script.SimpleBindings;
+
+// javax.script entry point for embedding jlox. compile() scans, parses and
+// resolves once, the returned LoxCompiledScript can then be evaluated any
+// number of times. Compile and runtime errors surface as ScriptExceptions
+// rather than through Lox's static error flags.
+public class LoxScriptEngine extends AbstractScriptEngine implements Compilable {
+    private final ScriptEngineFactory factory;
+    private GlobalImage prelude = Interpreter.natives;
+    private Budget budget = Budget.DEFAULT;
+
+    LoxScriptEngine(ScriptEngineFactory factory)
+    {
+        this.factory = factory;
+    }
+
+    // Scripts compiled after this call start every evaluation from the
+    // prelude's globals instead of just the natives.
+    public void setPrelude(GlobalImage prelude)
+    {
+        this.prelude = prelude;
+    }
+
+    // Scripts compiled after this call run every evaluation under budget
+    // (null for no limits). An exhausted budget surfaces as a
+    // ScriptException caused by BudgetExceeded.
+    public void setBudget(Budget budget)
+    {
+        this.budget = budget;
+    }
+
+    @Override
+    public Object eval(String script, ScriptContext context) throws ScriptException
+    {
+        LoxCompiledScript compiled = compile(script, fileName(context));
+        try
+        {
+            return compiled.eval(context);
+        }
+        finally
+        {
+            compiled.release();
+        }
+    }
+
+    @Override
+    public Object eval(Reader reader, ScriptContext context) throws ScriptException
+    {
+        return eval(read(reader), context);
+    }
+
+    @Override
+    public CompiledScript compile(String script) throws ScriptException
+    {
+        return compile(script, fileName(context));
+    }
+
+    @Override
+    public CompiledScript compile(Reader script) throws ScriptException
+    {
+        return compile(read(script));
+    }
+
+    @Override
+    public Bindings createBindings()
+    {
+        return new SimpleBindings();
+    }
+
+    @Override
+    public ScriptEngineFactory getFactory()
+    {
+        return factory;
+    }
+
+    private LoxCompiledScript compile(String script, String fileName) throws ScriptException
+    {
+        CompileErrors errors = new CompileErrors(fileName);
+        Scanner scanner = new Scanner(script, 0, script.length(), 0, errors);
+        List<Token> tokens = scanner.scanTokens();
+        Parser parser = new Parser(tokens, errors);
+        List<Stmt> statements = parser.parse();
+        errors.check();
+
+        Interpreter program = new Interpreter(prelude, LoxCompiledScript.discardOutput());
+        program.setBudget(budget);
+        Resolver resolver = new Resolver(program, errors);
+        resolver.resolve(statements);
+        try
+        {
+            errors.check();
+        }
+        catch (ScriptException e)
+        {
+            if (program.metrics != null) program.metrics.unregister();
+            throw e;
+        }
+
+        return new LoxCompiledScript(this, program, statements, fileName);
+    }
+
+    static String fileName(ScriptContext context)
+    {
+        Object name = context.getAttribute(ScriptEngine.FILENAME);
+        return name == null ? null : name.toString();
+    }
+
+    private static String read(Reader reader) throws ScriptException
+    {
+        StringBuilder script = new StringBuilder();
+        char[] buffer = new char[8192];
+        try
+        {
+            int count;
+            while ((count = reader.read(buffer)) != -1)
+            {
+                script.append(buffer, 0, count);
+            }
+        }
+        catch (IOException e)
+        {
+            throw new ScriptException(e);
+        }
+        return script.toString();
+    }
+
+    private static class CompileErrors implements ErrorReporter
+    {
+        private final String fileName;
+        private final StringBuilder messages = new StringBuilder();
+        private int firstLine = -1;
+
+        CompileErrors(String fileName)
+        {
+            this.fileName = fileName;
+        }
+
+        @Override
+        public void report(int line, String where, String message)
+        {
+            if (firstLine < 0) firstLine = line;
+            if (messages.length() > 0) messages.append('\n');
+            messages.append("[line ").append(line).append("] Error").append(where).append(": ").append(message);
+        }
+
+        void check() throws ScriptException
+        {
+            if (firstLine >= 0) throw new ScriptException(messages.toString(), fileName, firstLine);
+        }
+    }
+}
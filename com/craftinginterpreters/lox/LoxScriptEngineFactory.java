@@ -0,0 +1,78 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
+
+public class LoxScriptEngineFactory implements ScriptEngineFactory {
+    private static final List<String> names = List.of("lox", "jlox");
+    private static final List<String> extensions = List.of("lox");
+    private static final List<String> mimeTypes = List.of("application/x-lox");
+
+    @Override
+    public String getEngineName() { return "jlox"; }
+
+    @Override
+    public String getEngineVersion() { return "1.0"; }
+
+    @Override
+    public List<String> getExtensions() { return extensions; }
+
+    @Override
+    public List<String> getMimeTypes() { return mimeTypes; }
+
+    @Override
+    public List<String> getNames() { return names; }
+
+    @Override
+    public String getLanguageName() { return "Lox"; }
+
+    @Override
+    public String getLanguageVersion() { return "1.0"; }
+
+    @Override
+    public Object getParameter(String key)
+    {
+        switch (key)
+        {
+            case ScriptEngine.ENGINE: return getEngineName();
+            case ScriptEngine.ENGINE_VERSION: return getEngineVersion();
+            case ScriptEngine.LANGUAGE: return getLanguageName();
+            case ScriptEngine.LANGUAGE_VERSION: return getLanguageVersion();
+            case ScriptEngine.NAME: return names.get(0);
+            // Every evaluation runs in its own execution context.
+            case "THREADING": return "MULTITHREADED";
+            default: return null;
+        }
+    }
+
+    @Override
+    public String getMethodCallSyntax(String obj, String m, String... args)
+    {
+        return obj + "." + m + "(" + String.join(", ", args) + ")";
+    }
+
+    @Override
+    public String getOutputStatement(String toDisplay)
+    {
+        return "print \"" + toDisplay + "\";";
+    }
+
+    @Override
+    public String getProgram(String... statements)
+    {
+        StringBuilder program = new StringBuilder();
+        for (String statement : statements)
+        {
+            program.append(statement).append(";\n");
+        }
+        return program.toString();
+    }
+
+    @Override
+    public ScriptEngine getScriptEngine()
+    {
+        return new LoxScriptEngine(this);
+    }
+}
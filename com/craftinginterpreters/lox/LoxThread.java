@@ -0,0 +1,158 @@
+package com.craftinginterpreters.lox;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+
+// Handle returned by the spawn() native. The callable runs in its own
+// execution context on a virtual thread where the JDK has them, and on a
+// platform thread otherwise. join() waits for it and hands back the result.
+//
+// Whatever ends the thread, runtime error or not, is reported once: by the
+// context's threadErrors when the thread ends while nobody is joining it,
+// otherwise by rethrowing it from join(). A join that comes after the
+// error was reported fails with "Joined thread failed." instead.
+//
+// The CLI, --batch and the script engine wait for every spawned thread
+// to end before they report a script's status, so work nobody joins
+// still finishes and its failure still counts. That holds for virtual
+// threads, which are daemons, as much as for platform threads, which
+// are not; a thread that never ends keeps its script from finishing.
+//
+// Only the execution state is per thread. Globals, closure Environments,
+// instances, arrays and maps are shared with the spawning thread without
+// any synchronization, so scripts must not let two threads write the same
+// variable or object at once.
+public class LoxThread {
+    private static final MethodHandle startVirtualThread = findStartVirtualThread();
+
+    private final Thread thread;
+    private final CountDownLatch done = new CountDownLatch(1);
+    private Object result;
+    private RunTimeError error;
+    // Guarded by this.
+    private boolean joining;
+    private boolean reported;
+
+    LoxThread(Interpreter context, LoxCallable callable)
+    {
+        Runnable task = () -> {
+            try
+            {
+                result = callable.call(context, new ArrayList<>());
+            }
+            catch (RunTimeError err)
+            {
+                fail(context, err);
+            }
+            catch (StackOverflowError err)
+            {
+                fail(context, new RunTimeError(null, "Stack overflow."));
+            }
+            catch (Throwable err)
+            {
+                RunTimeError failure = new RunTimeError(null, "Thread failed: " + err);
+                failure.initCause(err);
+                fail(context, failure);
+            }
+            finally
+            {
+                context.out.flush();
+                context.spawned.remove(this);
+                done.countDown();
+            }
+        };
+        context.spawned.add(this);
+        this.thread = start(task);
+    }
+
+    private void fail(Interpreter context, RunTimeError err)
+    {
+        synchronized (this)
+        {
+            error = err;
+            reported = !joining;
+        }
+        if (reported) context.threadErrors.accept(err);
+    }
+
+    public Object join()
+    {
+        synchronized (this)
+        {
+            joining = true;
+        }
+        try
+        {
+            thread.join();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new RunTimeError(null, "Interrupted while joining thread.");
+        }
+        if (error != null)
+        {
+            if (reported) throw new RunTimeError(null, "Joined thread failed.");
+            throw error;
+        }
+        return result;
+    }
+
+    // Waits for the thread to end without taking over its error. Returns
+    // false if the wait was interrupted.
+    boolean await()
+    {
+        try
+        {
+            done.await();
+            return true;
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return "<thread>";
+    }
+
+    // Starts task on a virtual thread when the JDK has them, otherwise on
+    // a new platform thread.
+    static Thread start(Runnable task)
+    {
+        if (startVirtualThread != null)
+        {
+            try
+            {
+                return (Thread)startVirtualThread.invokeExact(task);
+            }
+            catch (Throwable e)
+            {
+                throw new RuntimeException(e);
+            }
+        }
+        Thread thread = new Thread(task, "lox-spawn");
+        thread.start();
+        return thread;
+    }
+
+    private static MethodHandle findStartVirtualThread()
+    {
+        try
+        {
+            return MethodHandles.publicLookup().findStatic(Thread.class, "startVirtualThread",
+                MethodType.methodType(Thread.class, Runnable.class));
+        }
+        catch (ReflectiveOperationException e)
+        {
+            return null;
+        }
+    }
+}
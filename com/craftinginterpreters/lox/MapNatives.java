@@ -0,0 +1,40 @@
+package com.craftinginterpreters.lox;
+
+// Natives for maps: map() makes an empty one, has and remove test and
+// delete keys, and keys and values copy them out into arrays for
+// iterating with an index loop.
+final class MapNatives {
+    private MapNatives() {}
+
+    @Native
+    static LoxMap map()
+    {
+        return new LoxMap();
+    }
+
+    @Native
+    static boolean has(LoxMap map, Object key)
+    {
+        return map.has(null, key);
+    }
+
+    @Native
+    static boolean remove(LoxMap map, Object key)
+    {
+        return map.remove(null, key);
+    }
+
+    @Native
+    static LoxArray keys(Interpreter interpreter, LoxMap map)
+    {
+        interpreter.allocate(Budget.Meter.ARRAY + (long)map.size() * Budget.Meter.ELEMENT);
+        return map.keys();
+    }
+
+    @Native
+    static LoxArray values(Interpreter interpreter, LoxMap map)
+    {
+        interpreter.allocate(Budget.Meter.ARRAY + (long)map.size() * Budget.Meter.ELEMENT);
+        return map.values();
+    }
+}
@@ -0,0 +1,14 @@
+package com.craftinginterpreters.lox;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+// Marks a static method as a Lox native for Interpreter.registerNatives.
+// The global takes the method's name unless one is given here.
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface Native {
+    String value() default "";
+}
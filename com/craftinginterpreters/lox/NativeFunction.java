@@ -0,0 +1,231 @@
+package com.craftinginterpreters.lox;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+
+// A @Native static method bound as a Lox callable. The method handle is
+// adapted once, at registration, to take (Interpreter, Object...) and
+// return Object: each parameter gets a coercion filter for its declared
+// type (double, boolean, String, Object or any other reference type) and
+// the result is boxed, or nil for void. An optional leading Interpreter
+// parameter receives the calling context and doesn't count toward arity.
+//
+// The interpreter calls call0..call3 directly with the evaluated
+// arguments, so common calls never build an argument list.
+final class NativeFunction implements LoxCallable {
+    private static final MethodHandles.Lookup lookup = MethodHandles.lookup();
+    private static final MethodHandle TO_NUMBER = find("toNumber", double.class, String.class, int.class, Object.class);
+    private static final MethodHandle TO_STRING = find("toText", String.class, String.class, int.class, Object.class);
+    private static final MethodHandle TO_BOOLEAN = find("toBoolean", boolean.class, Object.class);
+    private static final MethodHandle CHECK = find("check", Object.class, String.class, int.class, Class.class, Object.class);
+
+    final String name;
+    private final int arity;
+    private final MethodHandle handle;
+    private final MethodHandle spread;
+
+    private NativeFunction(String name, int arity, MethodHandle handle)
+    {
+        this.name = name;
+        this.arity = arity;
+        this.handle = handle;
+        this.spread = handle.asSpreader(Object[].class, arity);
+    }
+
+    static List<NativeFunction> bindAll(Class<?> host)
+    {
+        List<NativeFunction> functions = new ArrayList<>();
+        for (Method method : host.getDeclaredMethods())
+        {
+            Native annotation = method.getAnnotation(Native.class);
+            if (annotation == null) continue;
+            String name = annotation.value().isEmpty() ? method.getName() : annotation.value();
+            functions.add(bind(name, method));
+        }
+        return functions;
+    }
+
+    static NativeFunction bind(String name, Method method)
+    {
+        if (!Modifier.isStatic(method.getModifiers()))
+        {
+            throw new IllegalArgumentException("Native '" + name + "' must be a static method.");
+        }
+
+        MethodHandle target;
+        try
+        {
+            method.setAccessible(true);
+            target = lookup.unreflect(method);
+        }
+        catch (IllegalAccessException e)
+        {
+            throw new IllegalArgumentException("Can't access native '" + name + "'.", e);
+        }
+
+        Class<?>[] params = method.getParameterTypes();
+        int first = params.length > 0 && params[0] == Interpreter.class ? 1 : 0;
+        if (first == 0) target = MethodHandles.dropArguments(target, 0, Interpreter.class);
+
+        int arity = params.length - first;
+        MethodHandle[] filters = new MethodHandle[arity];
+        for (int i = 0; i < arity; i++)
+        {
+            filters[i] = coercion(name, i + 1, params[first + i]);
+        }
+        target = MethodHandles.filterArguments(target, 1, filters);
+
+        Class<?> result = method.getReturnType();
+        if (result == void.class)
+        {
+            MethodHandle nil = MethodHandles.dropArguments(
+                MethodHandles.constant(Object.class, null), 0, target.type().parameterList());
+            target = MethodHandles.foldArguments(nil, target);
+        }
+        else if (result.isPrimitive() && result != boolean.class)
+        {
+            // Lox only has doubles, so widen other numbers before boxing.
+            target = target.asType(target.type().changeReturnType(double.class));
+        }
+        target = target.asType(MethodType.genericMethodType(arity).insertParameterTypes(0, Interpreter.class));
+        return new NativeFunction(name, arity, target);
+    }
+
+    private static MethodHandle coercion(String name, int index, Class<?> type)
+    {
+        if (type == Object.class) return null;
+        if (type == double.class) return MethodHandles.insertArguments(TO_NUMBER, 0, name, index);
+        if (type == String.class) return MethodHandles.insertArguments(TO_STRING, 0, name, index);
+        if (type == boolean.class) return TO_BOOLEAN;
+        if (type.isPrimitive())
+        {
+            throw new IllegalArgumentException("Native '" + name + "' can't take a " + type + " parameter.");
+        }
+        MethodHandle check = MethodHandles.insertArguments(CHECK, 0, name, index, type);
+        return check.asType(check.type().changeReturnType(type));
+    }
+
+    private static MethodHandle find(String method, Class<?> result, Class<?>... params)
+    {
+        try
+        {
+            return lookup.findStatic(NativeFunction.class, method, MethodType.methodType(result, params));
+        }
+        catch (ReflectiveOperationException e)
+        {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static double toNumber(String name, int index, Object value)
+    {
+        if (value instanceof Double) return (Double)value;
+        throw mismatch(name, index, "a number");
+    }
+
+    private static String toText(String name, int index, Object value)
+    {
+        if (value instanceof String) return (String)value;
+        throw mismatch(name, index, "a string");
+    }
+
+    private static boolean toBoolean(Object value)
+    {
+        if (value == null) return false;
+        if (value instanceof Boolean) return (Boolean)value;
+        return true;
+    }
+
+    private static Object check(String name, int index, Class<?> type, Object value)
+    {
+        if (type.isInstance(value)) return value;
+        throw mismatch(name, index, describe(type));
+    }
+
+    // LoxArray reads as "an array", LoxCallable as "a callable".
+    private static String describe(Class<?> type)
+    {
+        String name = type.getSimpleName();
+        if (name.startsWith("Lox")) name = name.substring(3);
+        name = name.toLowerCase();
+        return ("aeiou".indexOf(name.charAt(0)) >= 0 ? "an " : "a ") + name;
+    }
+
+    private static RunTimeError mismatch(String name, int index, String expected)
+    {
+        return new RunTimeError(null, "Argument " + index + " of '" + name + "' must be " + expected + ".");
+    }
+
+    private RunTimeError failure(Throwable e)
+    {
+        String message = e.getMessage() == null ? e.getClass().getSimpleName() : e.getMessage();
+        return new RunTimeError(null, "Native '" + name + "' failed: " + message);
+    }
+
+    @Override
+    public int arity() { return arity; }
+
+    Object call0(Interpreter interpreter)
+    {
+        try
+        {
+            return (Object)handle.invokeExact(interpreter);
+        }
+        catch (RunTimeError | Error e) { throw e; }
+        catch (Throwable e) { throw failure(e); }
+    }
+
+    Object call1(Interpreter interpreter, Object a)
+    {
+        try
+        {
+            return (Object)handle.invokeExact(interpreter, a);
+        }
+        catch (RunTimeError | Error e) { throw e; }
+        catch (Throwable e) { throw failure(e); }
+    }
+
+    Object call2(Interpreter interpreter, Object a, Object b)
+    {
+        try
+        {
+            return (Object)handle.invokeExact(interpreter, a, b);
+        }
+        catch (RunTimeError | Error e) { throw e; }
+        catch (Throwable e) { throw failure(e); }
+    }
+
+    Object call3(Interpreter interpreter, Object a, Object b, Object c)
+    {
+        try
+        {
+            return (Object)handle.invokeExact(interpreter, a, b, c);
+        }
+        catch (RunTimeError | Error e) { throw e; }
+        catch (Throwable e) { throw failure(e); }
+    }
+
+    Object callN(Interpreter interpreter, Object[] arguments)
+    {
+        try
+        {
+            return (Object)spread.invokeExact(interpreter, arguments);
+        }
+        catch (RunTimeError | Error e) { throw e; }
+        catch (Throwable e) { throw failure(e); }
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, List<Object> arguments)
+    {
+        return callN(interpreter, arguments.toArray());
+    }
+
+    @Override
+    public String toString() { return "<native fn>"; }
+}
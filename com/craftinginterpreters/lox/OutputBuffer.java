@@ -0,0 +1,130 @@
+package com.craftinginterpreters.lox;
+
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+
+// Collects print output in a byte buffer and hands it to the channel in
+// large writes. Nothing reaches the channel until the buffer fills up or
+// flush() is called, so callers flush at exit, before errors and before
+// REPL prompts.
+public class OutputBuffer {
+    public static final int DEFAULT_CAPACITY = 64 * 1024;
+
+    private final WritableByteChannel channel;
+    private final ByteBuffer buffer;
+    private final byte[] digits = new byte[20];
+
+    public OutputBuffer(WritableByteChannel channel, int capacity)
+    {
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocate(capacity);
+    }
+
+    public static OutputBuffer stdout()
+    {
+        return new OutputBuffer(new FileOutputStream(FileDescriptor.out).getChannel(), DEFAULT_CAPACITY);
+    }
+
+    // Another buffer over the same channel, for a different thread.
+    public OutputBuffer sibling()
+    {
+        return new OutputBuffer(channel, buffer.capacity());
+    }
+
+    public void println(String text)
+    {
+        int length = text.length();
+        if (buffer.remaining() <= length) flush();
+        if (buffer.remaining() <= length)
+        {
+            write(encode(text));
+            return;
+        }
+
+        int start = buffer.position();
+        for (int i = 0; i < length; i++)
+        {
+            char c = text.charAt(i);
+            if (c >= 0x80)
+            {
+                buffer.position(start);
+                write(encode(text));
+                return;
+            }
+            buffer.put((byte)c);
+        }
+        buffer.put((byte)'\n');
+    }
+
+    public void println(double number)
+    {
+        if (!DoubleFormatter.isSmallInteger(number))
+        {
+            println(DoubleFormatter.format(number));
+            return;
+        }
+
+        if (buffer.remaining() < digits.length + 2) flush();
+        long value = (long)number;
+        if (value < 0)
+        {
+            buffer.put((byte)'-');
+            value = -value;
+        }
+        int count = 0;
+        do
+        {
+            digits[count++] = (byte)('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        while (count > 0) buffer.put(digits[--count]);
+        buffer.put((byte)'\n');
+    }
+
+    public void flush()
+    {
+        buffer.flip();
+        try
+        {
+            while (buffer.hasRemaining()) channel.write(buffer);
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+        finally
+        {
+            buffer.clear();
+        }
+    }
+
+    private void write(byte[] bytes)
+    {
+        if (bytes.length > buffer.remaining()) flush();
+        if (bytes.length <= buffer.remaining())
+        {
+            buffer.put(bytes);
+            return;
+        }
+
+        ByteBuffer large = ByteBuffer.wrap(bytes);
+        try
+        {
+            while (large.hasRemaining()) channel.write(large);
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static byte[] encode(String text)
+    {
+        return (text + "\n").getBytes(Charset.defaultCharset());
+    }
+}
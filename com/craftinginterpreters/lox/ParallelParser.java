@@ -0,0 +1,174 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+// Front end for large sources. A quick pass over the characters finds
+// top-level declarations (var, fun, class) that are outside any braces,
+// parentheses, strings and comments, the source is cut there into
+// chunks, and each chunk is scanned and parsed on the common ForkJoinPool.
+// If any chunk has an error the whole source is parsed again on one
+// thread, so errors are reported exactly as the sequential front end does.
+public class ParallelParser {
+    static final int PARALLEL_THRESHOLD = 1 << 20;
+    static final int MIN_CHUNK = 64 * 1024;
+
+    static List<Stmt> parse(String source)
+    {
+        return parse(source, Lox.reporter);
+    }
+
+    static List<Stmt> parse(String source, ErrorReporter reporter)
+    {
+        if (source.length() >= PARALLEL_THRESHOLD)
+        {
+            List<Stmt> statements = parseInParallel(source);
+            if (statements != null) return statements;
+        }
+        Scanner scanner = new Scanner(source, 0, source.length(), 0, reporter);
+        Parser parser = new Parser(scanner.scanTokens(), reporter);
+        return parser.parse();
+    }
+
+    private static List<Stmt> parseInParallel(String source)
+    {
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        int target = Math.max(MIN_CHUNK, source.length() / (pool.getParallelism() * 4));
+        List<int[]> chunks = split(source, target);
+        if (chunks.size() < 2) return null;
+
+        List<ForkJoinTask<List<Stmt>>> tasks = new ArrayList<>();
+        for (int[] chunk : chunks)
+        {
+            tasks.add(pool.submit(() -> parseChunk(source, chunk[0], chunk[1], chunk[2])));
+        }
+
+        List<Stmt> statements = new ArrayList<>();
+        boolean failed = false;
+        for (ForkJoinTask<List<Stmt>> task : tasks)
+        {
+            List<Stmt> chunkStatements = task.join();
+            if (chunkStatements == null) failed = true;
+            else if (!failed) statements.addAll(chunkStatements);
+        }
+        return failed ? null : statements;
+    }
+
+    private static List<Stmt> parseChunk(String source, int from, int to, int line)
+    {
+        Scanner scanner = new Scanner(source, from, to, line, ErrorReporter.SILENT);
+        List<Token> tokens = scanner.scanTokens();
+        if (scanner.hadError) return null;
+
+        Parser parser = new Parser(tokens, ErrorReporter.SILENT);
+        List<Stmt> statements = parser.parse();
+        if (parser.hadError) return null;
+        return statements;
+    }
+
+    // Returns {from, to, firstLine} for each chunk. Chunks are at least
+    // target characters long except for the last one.
+    static List<int[]> split(String source, int target)
+    {
+        List<int[]> chunks = new ArrayList<>();
+        int length = source.length();
+        int chunkStart = 0;
+        int chunkLine = 0;
+        int line = 0;
+        int depth = 0;
+        char last = ';';
+
+        int i = 0;
+        while (i < length)
+        {
+            char c = source.charAt(i);
+            char next = i + 1 < length ? source.charAt(i + 1) : '\0';
+            if (c == '\n')
+            {
+                line++;
+                i++;
+            }
+            else if (c == ' ' || c == '\t' || c == '\r')
+            {
+                i++;
+            }
+            else if (c == '"')
+            {
+                i++;
+                while (i < length && source.charAt(i) != '"')
+                {
+                    if (source.charAt(i) == '\n') line++;
+                    i++;
+                }
+                i++;
+                last = c;
+            }
+            else if (c == '/' && next == '/')
+            {
+                while (i < length && source.charAt(i) != '\n') i++;
+            }
+            else if (c == '/' && next == '*')
+            {
+                // Mirrors Scanner: the closing "*/" of the outermost
+                // comment is left to be scanned as tokens.
+                i += 2;
+                int levels = 1;
+                while (i < length)
+                {
+                    char d = source.charAt(i);
+                    char e = i + 1 < length ? source.charAt(i + 1) : '\0';
+                    if (d == '\n')
+                    {
+                        line++;
+                    }
+                    else if (d == '/' && e == '*')
+                    {
+                        i++;
+                        levels++;
+                    }
+                    else if (d == '*' && e == '/')
+                    {
+                        levels--;
+                        if (levels == 0) break;
+                    }
+                    i++;
+                }
+            }
+            else
+            {
+                if (depth == 0 && (last == ';' || last == '}')
+                    && i - chunkStart >= target && startsDeclaration(source, i))
+                {
+                    chunks.add(new int[] {chunkStart, i, chunkLine});
+                    chunkStart = i;
+                    chunkLine = line;
+                }
+
+                if (c == '{' || c == '(') depth++;
+                else if ((c == '}' || c == ')') && depth > 0) depth--;
+                last = c;
+                i++;
+            }
+        }
+        chunks.add(new int[] {chunkStart, length, chunkLine});
+        return chunks;
+    }
+
+    private static boolean startsDeclaration(String source, int at)
+    {
+        return startsKeyword(source, at, "var")
+            || startsKeyword(source, at, "fun")
+            || startsKeyword(source, at, "class");
+    }
+
+    private static boolean startsKeyword(String source, int at, String keyword)
+    {
+        if (!source.startsWith(keyword, at)) return false;
+        int after = at + keyword.length();
+        if (after >= source.length()) return false;
+        char c = source.charAt(after);
+        return !Character.isLetterOrDigit(c) && c != '_';
+    }
+}
@@ -7,26 +7,45 @@ import java.util.List;
 import javax.swing.SpringLayout.Constraints;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 
 public class Parser {
     private static class ParseError extends RuntimeException {}
     private final List<Token> tokens;
     private int current;
     private int loops;
+    private final ErrorReporter reporter;
+    boolean hadError = false;
     //private boolean repl;
 
     Parser(List<Token> tokens)
+    {
+        this(tokens, Lox.reporter);
+    }
+
+    Parser(List<Token> tokens, ErrorReporter reporter)
     {
         this.tokens = tokens;
+        this.reporter = reporter;
     }
     
     List<Stmt> parse() {
+        LoxEvents.Parse event = LoxEvents.ENABLED ? new LoxEvents.Parse() : null;
+        if (event != null) event.begin();
         List<Stmt> statements = new ArrayList<Stmt>();
         while (!isAtEnd())
         {
             statements.add(declaration());
         }
+        if (event != null)
+        {
+            event.end();
+            if (event.shouldCommit())
+            {
+                event.tokens = tokens.size();
+                event.statements = statements.size();
+                event.commit();
+            }
+        }
         return statements;
     }
 
@@ -52,6 +71,7 @@ public class Parser {
         if (match(TokenType.FOR)) return forStatement();
         if (match(TokenType.PRINT)) return printStatement();
         if (match(TokenType.BREAK)) return breakStatement();
+        if (match(TokenType.CONTINUE)) return continueStatement();
         if (match(TokenType.RETURN)) return returnStatement();
         return expressionStatement();
     }
@@ -63,19 +83,28 @@ public class Parser {
         return new Stmt.Break();
     }
 
+    private Stmt continueStatement()
+    {
+        if (loops < 1) throw error(previous(), "Continue statement outside of loop");
+        consume(TokenType.SEMICOLON, "Expect ';' after statement");
+        return new Stmt.Continue();
+    }
+
     private Stmt whileStatement()
     {
+        Token keyword = previous();
         consume(TokenType.LEFT_PAREN, "Expected '(' before while condition");
         Expr condition = expression();
         consume(TokenType.RIGHT_PAREN, "Expected ')' after while condition");
         loops++;
         Stmt statement = statement();
         loops--;
-        return new Stmt.While(condition, statement);
+        return new Stmt.While(keyword, condition, statement);
     }
 
     private Stmt forStatement()
     {
+        Token keyword = previous();
         consume(TokenType.LEFT_PAREN, "Expected '(' before while condition");
         Stmt initializer = null;
         if (match(TokenType.VAR))
@@ -103,17 +132,8 @@ public class Parser {
         loops++;
         Stmt body = statement();
         loops--;
-        if (increment != null)
-        {
-            body = new Stmt.Block(Arrays.asList(body, new Stmt.Expression(increment)));
-        }
 
-        if (condition == null) condition = new Expr.Literal(true);
-
-        body = new Stmt.While(condition, body);
-        if (initializer != null) body = new Stmt.Block(Arrays.asList(initializer, body));
-
-        return body;
+        return new Stmt.For(keyword, initializer, condition, increment, body);
     }
 
     private Stmt ifStatement()
@@ -200,7 +220,7 @@ public class Parser {
         List<Token> parameters =  new ArrayList<>();
         if (check(TokenType.LEFT_BRACE))
         {
-            if (!kind.equals("method")) Lox.error(peek(), "Defining getter in incorrect context");
+            if (!kind.equals("method")) error(peek(), "Defining getter in incorrect context");
             kind = "getter";
         }
         else
@@ -221,7 +241,10 @@ public class Parser {
         }
 
         consume(LEFT_BRACE, "Expect '{' before " + kind + "body");
+        int enclosingLoops = loops;
+        loops = 0;
         List<Stmt> body = block();
+        loops = enclosingLoops;
         return new Stmt.Function(name, parameters, body, kind);
     }
 
@@ -261,6 +284,11 @@ public class Parser {
                 Expr.Get get = (Expr.Get)expr;
                 return new Expr.Set(get.object, get.name, value);
             }
+            else if (expr instanceof Expr.Index)
+            {
+                Expr.Index index = (Expr.Index)expr;
+                return new Expr.IndexSet(index.object, index.bracket, index.index, value);
+            }
             error(equals, "Invalid assignment target.");
         }
 
@@ -396,6 +424,13 @@ public class Parser {
                 Token name = consume(IDENTIFIER, "Expect property name after '.'.");
                 expr = new Expr.Get(expr, name);
             }
+            else if (match(LEFT_BRACKET))
+            {
+                Token bracket = previous();
+                Expr index = expression();
+                consume(RIGHT_BRACKET, "Expect ']' after index.");
+                expr = new Expr.Index(expr, bracket, index);
+            }
             else
             {
                 break;
@@ -440,6 +475,20 @@ public class Parser {
         if (match(TokenType.THIS)) return new Expr.This(previous());
         if (match(TokenType.IDENTIFIER)) return new Expr.Variable(previous());
         if (match(TokenType.FUN)) return functionExpression();
+        if (match(TokenType.LEFT_BRACKET))
+        {
+            Token bracket = previous();
+            List<Expr> elements = new ArrayList<>();
+            if (!check(RIGHT_BRACKET))
+            {
+                do
+                {
+                    elements.add(expression());
+                } while (match(COMMA));
+            }
+            consume(RIGHT_BRACKET, "Expect ']' after array elements.");
+            return new Expr.Array(bracket, elements);
+        }
         if (match(TokenType.LEFT_PAREN))
         {
             Expr expr = expression();
@@ -451,6 +500,7 @@ public class Parser {
 
     private Expr functionExpression()
     {
+        Token keyword = previous();
         consume(LEFT_PAREN, "Expect '(' after lambda declaration. ");
         List<Token> parameters =  new ArrayList<>();
         if (!check(RIGHT_PAREN))
@@ -467,8 +517,11 @@ public class Parser {
 
         consume(RIGHT_PAREN, "Expect ')' after parameters");
         consume(LEFT_BRACE, "Expect '{' before lambda body");
+        int enclosingLoops = loops;
+        loops = 0;
         List<Stmt> body = block();
-        return new Expr.Function(parameters, body);
+        loops = enclosingLoops;
+        return new Expr.Function(keyword, parameters, body);
     }
 
     private boolean match(TokenType... types)
@@ -519,7 +572,8 @@ public class Parser {
     }
 
     private ParseError error(Token token, String message) {
-        Lox.error(token, message);
+        hadError = true;
+        reporter.error(token, message);
         return new ParseError();
     }
 
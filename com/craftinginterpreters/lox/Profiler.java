@@ -0,0 +1,152 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+// Sampling profiler for Lox code. Every execution context being profiled
+// keeps a shadow stack of the Lox functions it is in (Interpreter.frames,
+// pushed and popped by LoxFunction.call and LoxLambda.call); a daemon
+// thread looks at all of them at a fixed rate and counts how often each
+// distinct stack was seen. The counts are written in the collapsed-stack
+// format flame graph tools read: "<script>;outer:3;inner:7 42".
+//
+// When profiling is off Interpreter.frames is null and a call costs a
+// single null check.
+public class Profiler {
+    private final long intervalNanos;
+    private final Queue<Frames> stacks = new ConcurrentLinkedQueue<>();
+    private final Map<String, Long> samples = new HashMap<>();
+    private final Map<Object, String> labels = new IdentityHashMap<>();
+    private final Thread sampler;
+    private volatile boolean running = true;
+
+    public Profiler(int hertz)
+    {
+        this.intervalNanos = 1_000_000_000L / hertz;
+        this.sampler = new Thread(this::sampleLoop, "jlox-profiler");
+        sampler.setDaemon(true);
+        sampler.start();
+    }
+
+    // A shadow stack, written by the thread running its interpreter and
+    // read racily by the sampler. A sample may catch a frame mid-update;
+    // that costs one slightly wrong sample, never a crash.
+    static final class Frames
+    {
+        final Profiler profiler;
+        private volatile Object[] frames = new Object[64];
+        private volatile int depth;
+
+        private Frames(Profiler profiler)
+        {
+            this.profiler = profiler;
+        }
+
+        // frame is the function's declaration (Stmt.Function or
+        // Expr.Function) or a fixed label such as "<script>".
+        void push(Object frame)
+        {
+            Object[] frames = this.frames;
+            if (depth == frames.length)
+            {
+                frames = Arrays.copyOf(frames, depth * 2);
+                this.frames = frames;
+            }
+            frames[depth] = frame;
+            depth = depth + 1;
+        }
+
+        void pop()
+        {
+            depth = depth - 1;
+        }
+    }
+
+    Frames register()
+    {
+        Frames frames = new Frames(this);
+        stacks.add(frames);
+        return frames;
+    }
+
+    // Stops sampling and writes what was collected to path.
+    public void finish(Path path) throws IOException
+    {
+        running = false;
+        LockSupport.unpark(sampler);
+        try
+        {
+            sampler.join();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(path, StandardCharsets.UTF_8)))
+        {
+            for (Map.Entry<String, Long> sample : samples.entrySet())
+            {
+                writer.println(sample.getKey() + " " + sample.getValue());
+            }
+        }
+    }
+
+    private void sampleLoop()
+    {
+        StringBuilder stack = new StringBuilder();
+        while (running)
+        {
+            LockSupport.parkNanos(intervalNanos);
+            for (Frames frames : stacks)
+            {
+                Object[] entries = frames.frames;
+                int depth = Math.min(frames.depth, entries.length);
+                if (depth <= 0) continue;
+
+                stack.setLength(0);
+                for (int i = 0; i < depth; i++)
+                {
+                    if (i > 0) stack.append(';');
+                    stack.append(label(entries[i]));
+                }
+                samples.merge(stack.toString(), 1L, Long::sum);
+            }
+        }
+    }
+
+    private String label(Object frame)
+    {
+        String label = labels.get(frame);
+        if (label != null) return label;
+
+        label = describe(frame);
+        labels.put(frame, label);
+        return label;
+    }
+
+    // "name:line" for a function, "<lambda>:line" for a lambda.
+    static String describe(Object frame)
+    {
+        if (frame instanceof Stmt.Function)
+        {
+            Token name = ((Stmt.Function)frame).name;
+            return name.lexeme + ":" + name.line;
+        }
+        if (frame instanceof Expr.Function)
+        {
+            return "<lambda>:" + ((Expr.Function)frame).keyword.line;
+        }
+        return String.valueOf(frame);
+    }
+}
@@ -1,8 +1,8 @@
 package com.craftinginterpreters.lox;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.Stack;
 import java.util.List;
 
 import com.craftinginterpreters.lox.Expr;
@@ -13,13 +13,43 @@ import com.craftinginterpreters.lox.Stmt.Var;
 
 public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
     private final Interpreter interpreter;
-    private final Stack<Map<String, Boolean>> scopes = new Stack<>();
+    private final ErrorReporter reporter;
+    // Scopes are kept as ranges of a flat array of bindings: scope i owns
+    // bindings[scopeStarts[i], next scope start). Alongside that, each name
+    // maps to its innermost binding, which links to the one it shadows, so
+    // resolving a reference is a single map lookup whatever the nesting.
+    private final Map<String, Binding> innermost = new HashMap<>();
+    private Binding[] bindings = new Binding[64];
+    private int bindingCount = 0;
+    private int[] scopeStarts = new int[16];
+    private int scopeCount = 0;
     private FunctionType currentFunction = FunctionType.NONE;
     private ClassType currentClass = ClassType.NONE;
 
     public Resolver(Interpreter interpreter)
+    {
+        this(interpreter, Lox.reporter);
+    }
+
+    public Resolver(Interpreter interpreter, ErrorReporter reporter)
     {
         this.interpreter = interpreter;
+        this.reporter = reporter;
+    }
+
+    private static final class Binding
+    {
+        final String name;
+        final int scope;
+        final Binding shadowed;
+        boolean defined;
+
+        Binding(String name, int scope, Binding shadowed)
+        {
+            this.name = name;
+            this.scope = scope;
+            this.shadowed = shadowed;
+        }
     }
 
     private enum FunctionType
@@ -97,12 +127,17 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
     @Override
     public Void visitFunctionExpr(Expr.Function expr)
     {
+        FunctionType enclosingFunction = currentFunction;
+        currentFunction = FunctionType.FUNCTION;
+        beginScope();
         for (Token param : expr.params)
         {
             declare(param);
             define(param);
         }
-        resolve(expr.body);
+        resolveAll(expr.body);
+        endScope();
+        currentFunction = enclosingFunction;
         return null;
     }
 
@@ -121,16 +156,43 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
         return null;
     }
 
+    @Override
+    public Void visitArrayExpr(Expr.Array expr)
+    {
+        for (Expr element : expr.elements)
+        {
+            resolve(element);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitIndexExpr(Expr.Index expr)
+    {
+        resolve(expr.object);
+        resolve(expr.index);
+        return null;
+    }
+
+    @Override
+    public Void visitIndexSetExpr(Expr.IndexSet expr)
+    {
+        resolve(expr.value);
+        resolve(expr.object);
+        resolve(expr.index);
+        return null;
+    }
+
     @Override
     public Void visitThisExpr(Expr.This expr)
     {
         if (currentClass == ClassType.NONE)
         {
-            Lox.error(expr.keyword, "Can't use 'this' outside of a class");
+            reporter.error(expr.keyword, "Can't use 'this' outside of a class");
         }
         else if (currentFunction == FunctionType.STATIC)
         {
-            Lox.error(expr.keyword, "Can't use 'this' in a static method");
+            reporter.error(expr.keyword, "Can't use 'this' in a static method");
         }
         else
         {
@@ -145,10 +207,10 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
     {
         if (currentClass == ClassType.NONE)
         {
-            Lox.error(expr.keyword, "Can't use 'super' outside of a class");
+            reporter.error(expr.keyword, "Can't use 'super' outside of a class");
         }
         else if (currentClass != ClassType.SUBCLASS) {
-            Lox.error(expr.keyword, "Can't use 'super in a class with no superclass.'");
+            reporter.error(expr.keyword, "Can't use 'super in a class with no superclass.'");
         }
         resolveLocal(expr, expr.keyword);
         return null;
@@ -182,14 +244,14 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
     {
         if (currentFunction == FunctionType.NONE)
         {
-            Lox.error(stmt.keyword, "Can't return from top-level code.");
+            reporter.error(stmt.keyword, "Can't return from top-level code.");
         }
 
         if (stmt.value != null)
         {
             if (currentFunction == FunctionType.INITIALIZER)
         {
-            Lox.error(stmt.keyword, "Can't return a value from an initializer.");
+            reporter.error(stmt.keyword, "Can't return a value from an initializer.");
         }
 
             resolve(stmt.value);
@@ -205,12 +267,30 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
         return null;
     }
 
+    @Override
+    public Void visitForStmt(Stmt.For stmt)
+    {
+        beginScope();
+        if (stmt.initializer != null) resolve(stmt.initializer);
+        if (stmt.condition != null) resolve(stmt.condition);
+        if (stmt.increment != null) resolve(stmt.increment);
+        resolve(stmt.body);
+        endScope();
+        return null;
+    }
+
     @Override
     public Void visitBreakStmt(Stmt.Break stmt)
     {
         return null;
     }
 
+    @Override
+    public Void visitContinueStmt(Stmt.Continue stmt)
+    {
+        return null;
+    }
+
     @Override
     public Void visitVarStmt(Stmt.Var stmt)
     {
@@ -228,7 +308,7 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
     public Void visitBlockStmt(Stmt.Block stmt)
     {
         beginScope();
-        resolve(stmt.statements);
+        resolveAll(stmt.statements);
         endScope();
         return null;
     }
@@ -245,7 +325,7 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
         {
             if (stmt.name.lexeme.equals(superclass.name.lexeme))
             {
-                Lox.error(superclass.name, "A class can't inherit from itself.");
+                reporter.error(superclass.name, "A class can't inherit from itself.");
             }
 
         }
@@ -263,11 +343,11 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
         if (!stmt.superclasses.isEmpty())
         {
             beginScope();
-            scopes.peek().put("super", true);
+            define("super");
         }
 
         beginScope();
-        scopes.peek().put("this", true);
+        define("this");
         for (Stmt.Function method: stmt.methods)
         {
             FunctionType type = FunctionType.METHOD;
@@ -289,6 +369,22 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
     }
 
     public void resolve(List<Stmt> statements)
+    {
+        LoxEvents.Resolve event = LoxEvents.ENABLED ? new LoxEvents.Resolve() : null;
+        if (event != null) event.begin();
+        resolveAll(statements);
+        if (event != null)
+        {
+            event.end();
+            if (event.shouldCommit())
+            {
+                event.statements = statements.size();
+                event.commit();
+            }
+        }
+    }
+
+    private void resolveAll(List<Stmt> statements)
     {
         for (Stmt statement: statements)
         {
@@ -308,44 +404,75 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
 
     private void beginScope()
     {
-        scopes.push(new HashMap<String, Boolean>());
+        if (scopeCount == scopeStarts.length)
+        {
+            scopeStarts = Arrays.copyOf(scopeStarts, scopeCount * 2);
+        }
+        scopeStarts[scopeCount++] = bindingCount;
     }
 
     private void endScope()
     {
-        scopes.pop();
-        // TODO: Implement error if local variable is not used
-        /*for (Map.Entry<String, Boolean> entry: locals.entrySet())
+        int start = scopeStarts[--scopeCount];
+        for (int i = bindingCount - 1; i >= start; i--)
         {
-            if (!entry.getValue())
+            Binding binding = bindings[i];
+            bindings[i] = null;
+            if (binding.shadowed == null)
+            {
+                innermost.remove(binding.name);
+            }
+            else
             {
-                Lox.error(name, "Variable with the same name already defined in this scope.");
+                innermost.put(binding.name, binding.shadowed);
             }
-        }*/
+        }
+        bindingCount = start;
+        // TODO: Implement error if local variable is not used
+    }
+
+    private Binding bind(String name)
+    {
+        Binding binding = new Binding(name, scopeCount - 1, innermost.get(name));
+        innermost.put(name, binding);
+        if (bindingCount == bindings.length)
+        {
+            bindings = Arrays.copyOf(bindings, bindingCount * 2);
+        }
+        bindings[bindingCount++] = binding;
+        return binding;
     }
 
     private void declare(Token name) {
-        if (scopes.isEmpty()) return;
-        Map<String, Boolean> scope = scopes.peek();
-        if (scope.containsKey(name.lexeme))
+        if (scopeCount == 0) return;
+        Binding existing = innermost.get(name.lexeme);
+        if (existing != null && existing.scope == scopeCount - 1)
         {
-            Lox.error(name, "Variable with the same name already defined in this scope.");
+            reporter.error(name, "Variable with the same name already defined in this scope.");
+            existing.defined = false;
+            return;
         }
-        scope.put(name.lexeme, false);
+        bind(name.lexeme);
     }
 
     private void define(Token name)
     {
-        if (scopes.isEmpty()) return;
-        scopes.peek().put(name.lexeme, true);
+        if (scopeCount == 0) return;
+        innermost.get(name.lexeme).defined = true;
+    }
+
+    private void define(String name)
+    {
+        bind(name).defined = true;
     }
 
     @Override
     public Void visitVariableExpr(Expr.Variable expr)
     {
-        if (!scopes.isEmpty() && scopes.peek().get(expr.name.lexeme) == Boolean.FALSE)
+        Binding binding = innermost.get(expr.name.lexeme);
+        if (binding != null && binding.scope == scopeCount - 1 && !binding.defined)
         {
-            Lox.error(expr.name, "Can't read local variable in its own initializer.");
+            reporter.error(expr.name, "Can't read local variable in its own initializer.");
         }
 
         resolveLocal(expr, expr.name);
@@ -354,13 +481,14 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
 
     private void resolveLocal(Expr expr, Token name)
     {
-        for (int i = scopes.size() - 1; i >= 0; i--)
+        Binding binding = innermost.get(name.lexeme);
+        if (binding != null)
         {
-            if (scopes.get(i).containsKey(name.lexeme))
-            {
-                interpreter.resolve(expr, scopes.size() - 1 - i);
-                return;
-            }
+            interpreter.resolve(expr, scopeCount - 1 - binding.scope);
+        }
+        else
+        {
+            interpreter.resolveGlobal(expr, name);
         }
     }
 
@@ -391,7 +519,7 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
             declare(param);
             define(param);
         }
-        resolve(function.body);
+        resolveAll(function.body);
         endScope();
         currentFunction = enclosingFunction;
     }
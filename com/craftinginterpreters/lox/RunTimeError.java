@@ -9,4 +9,11 @@ public class RunTimeError extends RuntimeException {
         super(message);
         this.token = token;
     }
+
+    // The error as jlox prints it: the message, then the line it happened
+    // on. Every front end (the CLI, --batch, the script engine) uses this.
+    public String report()
+    {
+        return getMessage() + "\nline[" + (token != null ? String.valueOf(token.line) : "?") + "]";
+    }
 }
@@ -31,19 +31,37 @@ public class Scanner {
         keywords.put("this", TokenType.THIS);
         keywords.put("super", TokenType.SUPER);
         keywords.put("break", TokenType.BREAK);
+        keywords.put("continue", TokenType.CONTINUE);
     }
     private int start;
     private int current;
     private int line;
+    private final int end;
+    private final ErrorReporter reporter;
+    boolean hadError = false;
 
 
     public Scanner(String source)
+    {
+        this(source, 0, source.length(), 0, Lox.reporter);
+    }
+
+    // Scans only source[from, to), numbering lines from firstLine.
+    Scanner(String source, int from, int to, int firstLine, ErrorReporter reporter)
     {
         this.source = source;
+        this.start = from;
+        this.current = from;
+        this.end = to;
+        this.line = firstLine;
+        this.reporter = reporter;
     }
     
     public List<Token> scanTokens()
     {
+        LoxEvents.Scan event = LoxEvents.ENABLED ? new LoxEvents.Scan() : null;
+        if (event != null) event.begin();
+        int first = current;
         while (!isAtEnd()) {
             // We are at the beginning of the next lexeme.
             start = current;
@@ -51,6 +69,16 @@ public class Scanner {
         }
     
         tokens.add(new Token(TokenType.EOF, "", null, line));
+        if (event != null)
+        {
+            event.end();
+            if (event.shouldCommit())
+            {
+                event.characters = end - first;
+                event.tokens = tokens.size();
+                event.commit();
+            }
+        }
         return tokens;
     }
 
@@ -63,6 +91,8 @@ public class Scanner {
             case ')': addToken(TokenType.RIGHT_PAREN); break;
             case '{': addToken(TokenType.LEFT_BRACE); break;
             case '}': addToken(TokenType.RIGHT_BRACE); break;
+            case '[': addToken(TokenType.LEFT_BRACKET); break;
+            case ']': addToken(TokenType.RIGHT_BRACKET); break;
             case ',': addToken(TokenType.COMMA); break;
             case '.': addToken(TokenType.DOT); break;
             case '-': addToken(TokenType.MINUS); break;
@@ -131,7 +161,7 @@ public class Scanner {
                 }
                 else
                 {
-                    Lox.error(line, "Unexpected character: " + c);
+                    error("Unexpected character: " + c);
                 }
                 break;
         }
@@ -167,7 +197,7 @@ public class Scanner {
         }
       
         if (isAtEnd()) {
-            Lox.error(line, "Unterminated string.");
+            error("Unterminated string.");
             return;
         }
       
@@ -210,11 +240,17 @@ public class Scanner {
 
     private char peekNext()
     {
-        return (current + 1 >= source.length()) ? '\0' : source.charAt(current+1);
+        return (current + 1 >= end) ? '\0' : source.charAt(current+1);
     }
 
     private boolean isAtEnd()
     {
-        return current >= source.length();
+        return current >= end;
+    }
+
+    private void error(String message)
+    {
+        hadError = true;
+        reporter.error(line, message);
     }
 }
@@ -1,175 +1,304 @@
+// Generated by com.craftinginterpreters.tool.GenerateAst. Change the node
+// list there and regenerate instead of editing this file.
 package com.craftinginterpreters.lox;
 
+import java.io.Serializable;
 import java.util.List;
 
-public abstract class Stmt {
-  interface Visitor<R> {
+public abstract sealed class Stmt implements Serializable
+    permits Stmt.Expression, Stmt.Print, Stmt.Var, Stmt.Block, Stmt.If,
+        Stmt.While, Stmt.For, Stmt.Break, Stmt.Continue, Stmt.Function,
+        Stmt.Return, Stmt.Class
+{
+  private static final long serialVersionUID = 1L;
+
+  public interface Visitor<R> {
     R visitExpressionStmt(Expression stmt);
     R visitPrintStmt(Print stmt);
     R visitVarStmt(Var stmt);
     R visitBlockStmt(Block stmt);
     R visitIfStmt(If stmt);
     R visitWhileStmt(While stmt);
+    R visitForStmt(For stmt);
     R visitBreakStmt(Break stmt);
+    R visitContinueStmt(Continue stmt);
     R visitFunctionStmt(Function stmt);
     R visitReturnStmt(Return stmt);
     R visitClassStmt(Class stmt);
   }
-    public static class Expression extends Stmt
+
+  // Node tags, one per subclass, for switch dispatch.
+  public static final int EXPRESSION = 0;
+  public static final int PRINT = 1;
+  public static final int VAR = 2;
+  public static final int BLOCK = 3;
+  public static final int IF = 4;
+  public static final int WHILE = 5;
+  public static final int FOR = 6;
+  public static final int BREAK = 7;
+  public static final int CONTINUE = 8;
+  public static final int FUNCTION = 9;
+  public static final int RETURN = 10;
+  public static final int CLASS = 11;
+
+  public final int tag;
+
+  private Stmt(int tag)
+  {
+    this.tag = tag;
+  }
+
+  public abstract <R> R accept(Visitor<R> visitor);
+
+  public static final class Expression extends Stmt
+  {
+    private static final long serialVersionUID = 1L;
+
+    public final Expr expression;
+
+    public Expression(Expr expression)
     {
-        public final Expr expression;
-        public Expression(Expr expression) {
-          this.expression = expression;
-        }
+      super(EXPRESSION);
+      this.expression = expression;
+    }
 
-        @Override
-        public <R> R accept(Visitor<R> visitor) {
-          return visitor.visitExpressionStmt(this);
-        }
+    @Override
+    public <R> R accept(Visitor<R> visitor)
+    {
+      return visitor.visitExpressionStmt(this);
     }
+  }
+
+  public static final class Print extends Stmt
+  {
+    private static final long serialVersionUID = 1L;
+
+    public final Expr expression;
 
-    public static class Print extends Stmt
+    public Print(Expr expression)
     {
-        public final Expr expression;
-        public Print(Expr expression) {
-          this.expression = expression;
-        }
+      super(PRINT);
+      this.expression = expression;
+    }
 
-        @Override
-        public <R> R accept(Visitor<R> visitor) {
-          return visitor.visitPrintStmt(this);
-        }
+    @Override
+    public <R> R accept(Visitor<R> visitor)
+    {
+      return visitor.visitPrintStmt(this);
     }
+  }
+
+  public static final class Var extends Stmt
+  {
+    private static final long serialVersionUID = 1L;
 
-    public static class Var extends Stmt
+    public final Token name;
+    public final Expr initializer;
+
+    public Var(Token name, Expr initializer)
     {
-        public final Token name;
-        public final Expr initializer;
-        public Var(Token name, Expr initializer) {
-          this.name = name;
-          this.initializer = initializer;
-        }
+      super(VAR);
+      this.name = name;
+      this.initializer = initializer;
+    }
 
-        @Override
-        public <R> R accept(Visitor<R> visitor) {
-          return visitor.visitVarStmt(this);
-        }
+    @Override
+    public <R> R accept(Visitor<R> visitor)
+    {
+      return visitor.visitVarStmt(this);
     }
+  }
+
+  public static final class Block extends Stmt
+  {
+    private static final long serialVersionUID = 1L;
 
-    public static class Block extends Stmt
+    public final List<Stmt> statements;
+
+    public Block(List<Stmt> statements)
     {
-      public final List<Stmt> statements;
-      public Block(List<Stmt> statements)
-      {
-        this.statements = statements;
-      }
+      super(BLOCK);
+      this.statements = statements;
+    }
 
-      @Override
-      public <R> R accept(Visitor<R> visitor) {
-        return visitor.visitBlockStmt(this);
-      }
+    @Override
+    public <R> R accept(Visitor<R> visitor)
+    {
+      return visitor.visitBlockStmt(this);
     }
+  }
 
-    public static class If extends Stmt
+  public static final class If extends Stmt
+  {
+    private static final long serialVersionUID = 1L;
+
+    public final Expr condition;
+    public final Stmt thenBranch;
+    public final Stmt elseBranch;
+
+    public If(Expr condition, Stmt thenBranch, Stmt elseBranch)
+    {
+      super(IF);
+      this.condition = condition;
+      this.thenBranch = thenBranch;
+      this.elseBranch = elseBranch;
+    }
+
+    @Override
+    public <R> R accept(Visitor<R> visitor)
     {
-      public Expr condition;
-      public Stmt thenBranch;
-      public Stmt elseBranch;
+      return visitor.visitIfStmt(this);
+    }
+  }
+
+  public static final class While extends Stmt
+  {
+    private static final long serialVersionUID = 1L;
 
-      public If(Expr condition, Stmt thenBranch, Stmt elseBranch)
-      {
-        this.condition = condition;
-        this.thenBranch = thenBranch;
-        this.elseBranch = elseBranch;
-      }
+    public final Token keyword;
+    public final Expr condition;
+    public final Stmt body;
 
-      @Override
-      public <R> R accept(Visitor<R> visitor) {
-        return visitor.visitIfStmt(this);
-      }
+    public While(Token keyword, Expr condition, Stmt body)
+    {
+      super(WHILE);
+      this.keyword = keyword;
+      this.condition = condition;
+      this.body = body;
     }
 
-    public static class While extends Stmt
+    @Override
+    public <R> R accept(Visitor<R> visitor)
     {
-      public Expr condition;
-      public Stmt body;
+      return visitor.visitWhileStmt(this);
+    }
+  }
 
-      public While(Expr condition, Stmt body)
-      {
-        this.condition = condition;
-        this.body = body;
-      }
+  public static final class For extends Stmt
+  {
+    private static final long serialVersionUID = 1L;
 
-      @Override
-      public <R> R accept(Visitor<R> visitor) {
-        return visitor.visitWhileStmt(this);
-      }
+    public final Token keyword;
+    public final Stmt initializer;
+    public final Expr condition;
+    public final Expr increment;
+    public final Stmt body;
+
+    public For(Token keyword, Stmt initializer, Expr condition, Expr increment, Stmt body)
+    {
+      super(FOR);
+      this.keyword = keyword;
+      this.initializer = initializer;
+      this.condition = condition;
+      this.increment = increment;
+      this.body = body;
     }
 
-    public static class Break extends Stmt
+    @Override
+    public <R> R accept(Visitor<R> visitor)
+    {
+      return visitor.visitForStmt(this);
+    }
+  }
+
+  public static final class Break extends Stmt
+  {
+    private static final long serialVersionUID = 1L;
+
+    public Break()
+    {
+      super(BREAK);
+    }
+
+    @Override
+    public <R> R accept(Visitor<R> visitor)
+    {
+      return visitor.visitBreakStmt(this);
+    }
+  }
+
+  public static final class Continue extends Stmt
+  {
+    private static final long serialVersionUID = 1L;
+
+    public Continue()
     {
-      @Override
-      public <R> R accept(Visitor<R> visitor) {
-        return visitor.visitBreakStmt(this);
-      }
+      super(CONTINUE);
     }
 
-    public static class Function extends Stmt
+    @Override
+    public <R> R accept(Visitor<R> visitor)
     {
-      public Token name;
-      public List<Token> params;
-      public List<Stmt> body;
-      public String kind;
+      return visitor.visitContinueStmt(this);
+    }
+  }
 
-      public Function(Token name, List<Token> params, List<Stmt> body, String kind)
-      {
-        this.name = name;
-        this.params = params;
-        this.body = body;
-        this.kind = kind;
-      }
+  public static final class Function extends Stmt
+  {
+    private static final long serialVersionUID = 1L;
 
-      @Override
-      public <R> R accept(Visitor<R> visitor) {
-        return visitor.visitFunctionStmt(this);
-      }
+    public final Token name;
+    public final List<Token> params;
+    public final List<Stmt> body;
+    public final String kind;
+
+    public Function(Token name, List<Token> params, List<Stmt> body, String kind)
+    {
+      super(FUNCTION);
+      this.name = name;
+      this.params = params;
+      this.body = body;
+      this.kind = kind;
     }
 
-    public static class Return extends Stmt
+    @Override
+    public <R> R accept(Visitor<R> visitor)
     {
-      public Token keyword;
-      public Expr value;
+      return visitor.visitFunctionStmt(this);
+    }
+  }
 
-      public Return(Token keyword, Expr value)
-      {
-        this.keyword = keyword;
-        this.value = value;
-      }
+  public static final class Return extends Stmt
+  {
+    private static final long serialVersionUID = 1L;
 
-      @Override
-      public <R> R accept(Visitor<R> visitor) {
-        return visitor.visitReturnStmt(this);
-      }
+    public final Token keyword;
+    public final Expr value;
+
+    public Return(Token keyword, Expr value)
+    {
+      super(RETURN);
+      this.keyword = keyword;
+      this.value = value;
     }
 
-    public static class Class extends Stmt
+    @Override
+    public <R> R accept(Visitor<R> visitor)
     {
-      public Token name;
-      public List<Expr.Variable> superclasses;
-      public List<Stmt.Function> methods;
-      
-      public Class(Token name, List<Expr.Variable> superclasses, List<Stmt.Function> methods)
-      {
-        this.name = name;
-        this.superclasses = superclasses;
-        this.methods = methods;
-      }
+      return visitor.visitReturnStmt(this);
+    }
+  }
+
+  public static final class Class extends Stmt
+  {
+    private static final long serialVersionUID = 1L;
+
+    public final Token name;
+    public final List<Expr.Variable> superclasses;
+    public final List<Stmt.Function> methods;
 
-      @Override
-      public <R> R accept(Visitor<R> visitor) {
-        return visitor.visitClassStmt(this);
-      }
+    public Class(Token name, List<Expr.Variable> superclasses, List<Stmt.Function> methods)
+    {
+      super(CLASS);
+      this.name = name;
+      this.superclasses = superclasses;
+      this.methods = methods;
     }
 
-  abstract <R> R accept(Visitor<R> visitor);
-}
\ No newline at end of file
+    @Override
+    public <R> R accept(Visitor<R> visitor)
+    {
+      return visitor.visitClassStmt(this);
+    }
+  }
+}
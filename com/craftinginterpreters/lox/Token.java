@@ -2,8 +2,12 @@ package com.craftinginterpreters.lox;
 
 import static com.craftinginterpreters.lox.TokenType.*;
 
-public class Token
+import java.io.Serializable;
+
+public class Token implements Serializable
 {
+    private static final long serialVersionUID = 1L;
+
     public String lexeme;
     public TokenType type;
     public Object literal;
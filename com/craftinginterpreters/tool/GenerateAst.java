@@ -5,6 +5,11 @@ import java.io.PrintWriter;
 import java.util.Arrays;
 import java.util.List;
 
+// Writes Expr.java and Stmt.java, which are never edited by hand. Each node
+// is "Name : constructor fields | cache fields"; constructor fields are
+// final, cache fields are transient slots the interpreter fills in at run
+// time. Every node also gets a tag constant so the interpreter can dispatch
+// with a switch over the closed, sealed set of node classes.
 class GenerateAst
 {
     public static void main(String[] args) throws IOException
@@ -16,83 +21,180 @@ class GenerateAst
         }
 
         String outputDir = args[0];
-        /* defineAst(outputDir, "Expr", Arrays.asList(
-            "Binary : Expr left, Token operator, Expr right",
+        defineAst(outputDir, "Expr", Arrays.asList(
+            "// Scope distance of a variable, this or super reference, filled in by the",
+            "// Resolver. -1 means the name is global.",
+            "public int depth = -1;"
+        ), Arrays.asList(
+            "Binary   : Expr left, Token operator, Expr right",
             "Grouping : Expr expression",
-            "Unary : Token operator, Expr right",
-            "Literal : Object value"
-        )); */
+            "Unary    : Token operator, Expr right",
+            "Literal  : Object value",
+            "Ternary  : Expr condition, Expr left, Expr right",
+            // The slot caches where a global lives in GlobalEnvironment.
+            "Variable : Token name | int slot",
+            "Assign   : Token name, Expr value | int slot",
+            "Logical  : Token operator, Expr left, Expr right",
+            "Call     : Expr callee, Token paren, List<Expr> arguments",
+            "Function : Token keyword, List<Token> params, List<Stmt> body",
+            // Inline cache: the method last looked up here, and the site's
+            // LoxClass.Lookup state.
+            "Get      : Expr object, Token name | LoxClass.Lookup lookup, byte state",
+            "Set      : Expr object, Token name, Expr value",
+            "This     : Token keyword",
+            "Super    : Token keyword, Token method",
+            "Array    : Token bracket, List<Expr> elements",
+            "Index    : Expr object, Token bracket, Expr index",
+            "IndexSet : Expr object, Token bracket, Expr index, Expr value"
+        ));
 
-        defineAst(outputDir, "Stmt", Arrays.asList(
+        defineAst(outputDir, "Stmt", Arrays.asList(), Arrays.asList(
             "Expression : Expr expression",
-            "Print      : Expr expression"
+            "Print      : Expr expression",
+            "Var        : Token name, Expr initializer",
+            "Block      : List<Stmt> statements",
+            "If         : Expr condition, Stmt thenBranch, Stmt elseBranch",
+            "While      : Token keyword, Expr condition, Stmt body",
+            "For        : Token keyword, Stmt initializer, Expr condition, Expr increment, Stmt body",
+            "Break      :",
+            "Continue   :",
+            "Function   : Token name, List<Token> params, List<Stmt> body, String kind",
+            "Return     : Token keyword, Expr value",
+            "Class      : Token name, List<Expr.Variable> superclasses, List<Stmt.Function> methods"
         ));
     }
 
-    private static void defineAst(String outputDir, String baseName, List<String> types) throws IOException
+    private static void defineAst(String outputDir, String baseName, List<String> baseFields,
+                                  List<String> types) throws IOException
     {
         String path = outputDir + "/" + baseName + ".java";
-        PrintWriter printWriter = new PrintWriter(path, "UTF-8");
+        PrintWriter writer = new PrintWriter(path, "UTF-8");
+
+        writer.println("// Generated by com.craftinginterpreters.tool.GenerateAst. Change the node");
+        writer.println("// list there and regenerate instead of editing this file.");
+        writer.println("package com.craftinginterpreters.lox;");
+        writer.println();
+        writer.println("import java.io.Serializable;");
+        writer.println("import java.util.List;");
+        writer.println();
+        writer.println("public abstract sealed class " + baseName + " implements Serializable");
+        StringBuilder permits = new StringBuilder("    permits");
+        for (int i = 0; i < types.size(); i++)
+        {
+            String name = " " + baseName + "." + className(types.get(i)) + (i < types.size() - 1 ? "," : "");
+            if (permits.length() + name.length() > 78)
+            {
+                writer.println(permits);
+                permits.setLength(0);
+                permits.append("       ");
+            }
+            permits.append(name);
+        }
+        writer.println(permits);
+        writer.println("{");
+        writer.println("  private static final long serialVersionUID = 1L;");
+        writer.println();
+        defineVisitor(writer, baseName, types);
+
+        writer.println();
+        writer.println("  // Node tags, one per subclass, for switch dispatch.");
+        for (int i = 0; i < types.size(); i++)
+        {
+            writer.println("  public static final int " + tagName(className(types.get(i))) + " = " + i + ";");
+        }
 
-        printWriter.println("package com.craftinginterpreters.lox;");
-        printWriter.println();
-        printWriter.println("abstract class " + baseName + " {");
-        defineVisitor(printWriter, baseName, types);
-        for (String type: types)
+        writer.println();
+        writer.println("  public final int tag;");
+        if (!baseFields.isEmpty())
         {
-            String className = type.split(":")[0].trim();
-            String fields = type.split(":")[1].trim(); 
-            defineType(printWriter, baseName, className, fields);
+            writer.println();
+            for (String line : baseFields) writer.println("  " + line);
         }
-        printWriter.println();
-        printWriter.println("  abstract <R> R accept(Visitor<R> visitor);");
 
-        printWriter.print("}");
-        printWriter.close();
+        writer.println();
+        writer.println("  private " + baseName + "(int tag)");
+        writer.println("  {");
+        writer.println("    this.tag = tag;");
+        writer.println("  }");
+        writer.println();
+        writer.println("  public abstract <R> R accept(Visitor<R> visitor);");
+
+        for (String type : types)
+        {
+            String[] parts = type.split(":", 2)[1].split("\\|");
+            String fields = parts[0].trim();
+            String caches = parts.length > 1 ? parts[1].trim() : "";
+            writer.println();
+            defineType(writer, baseName, className(type), fields, caches);
+        }
+
+        writer.println("}");
+        writer.close();
     }
 
-    private static void defineType(PrintWriter writer, String baseName, String className, String fields)
+    private static void defineType(PrintWriter writer, String baseName, String className,
+                                   String fields, String caches)
     {
-        writer.println("    static class " + className + " extends " + baseName);
-        writer.println("    {");
-        // fields
-        for (String field : fields.split(", "))
+        List<String> fieldList = fields.isEmpty() ? Arrays.asList() : Arrays.asList(fields.split(", "));
+
+        writer.println("  public static final class " + className + " extends " + baseName);
+        writer.println("  {");
+        writer.println("    private static final long serialVersionUID = 1L;");
+        writer.println();
+        for (String field : fieldList)
         {
-            writer.println("        final " + field + ";");
+            writer.println("    public final " + field + ";");
+        }
+        if (!caches.isEmpty())
+        {
+            for (String cache : caches.split(", "))
+            {
+                writer.println("    transient " + cache + ";");
+            }
         }
 
         // Constructor
-        writer.println("        " + className + "(" + fields + ") {");
-
-        // Store parameters in fields.
-        for (String field : fields.split(", ")) {
-            String name = field.split(" ")[1];
-            writer.println("          this." + name + " = " + name + ";");
+        if (!fieldList.isEmpty() || !caches.isEmpty()) writer.println();
+        writer.println("    public " + className + "(" + fields + ")");
+        writer.println("    {");
+        writer.println("      super(" + tagName(className) + ");");
+        for (String field : fieldList)
+        {
+            String name = field.substring(field.lastIndexOf(' ') + 1);
+            writer.println("      this." + name + " = " + name + ";");
         }
-        writer.println("        }");
+        writer.println("    }");
 
         // Visitor pattern.
         writer.println();
-        writer.println("        @Override");
-        writer.println("        <R> R accept(Visitor<R> visitor) {");
-        writer.println("          return visitor.visit" + className + baseName + "(this);");
-        writer.println("        }");
-
-        
+        writer.println("    @Override");
+        writer.println("    public <R> R accept(Visitor<R> visitor)");
+        writer.println("    {");
+        writer.println("      return visitor.visit" + className + baseName + "(this);");
         writer.println("    }");
-        writer.println();
+        writer.println("  }");
     }
 
-    private static void defineVisitor(
-      PrintWriter writer, String baseName, List<String> types) {
-        writer.println("  interface Visitor<R> {");
-
-        for (String type : types) {
-            String typeName = type.split(":")[0].trim();
+    private static void defineVisitor(PrintWriter writer, String baseName, List<String> types)
+    {
+        writer.println("  public interface Visitor<R> {");
+        for (String type : types)
+        {
+            String typeName = className(type);
             writer.println("    R visit" + typeName + baseName + "(" +
                 typeName + " " + baseName.toLowerCase() + ");");
         }
-
         writer.println("  }");
-  }
-}
\ No newline at end of file
+    }
+
+    private static String className(String type)
+    {
+        return type.split(":")[0].trim();
+    }
+
+    // IndexSet -> INDEX_SET
+    private static String tagName(String className)
+    {
+        return className.replaceAll("([a-z])([A-Z])", "$1_$2").toUpperCase();
+    }
+}
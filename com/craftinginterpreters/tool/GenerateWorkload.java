@@ -0,0 +1,263 @@
+package com.craftinginterpreters.tool;
+
+import java.io.BufferedWriter;
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+// Emits synthetic Lox programs of a requested size for scaling tests. A
+// program is a header, as many units of the chosen shape as it takes to
+// reach the size, and a footer printing a checksum the units add to, so
+// every generated program also runs. Units are written straight to the
+// output, so sources far larger than the heap can be produced.
+//
+// Shapes, and what depth means for each:
+//   nesting   functions of nested blocks, ifs and loops, depth levels deep
+//   classes   classes with two superclasses in chains of depth classes
+//   functions long functions of depth * 4 statements
+//   literals  array literal tables of depth * 8 entries
+//   closures  curried lambdas capturing depth enclosing parameters
+//   mixed     all of the above in turn
+public class GenerateWorkload
+{
+    public static final String[] SHAPES = {
+        "nesting", "classes", "functions", "literals", "closures", "mixed"
+    };
+
+    public static void main(String[] args) throws IOException
+    {
+        if (args.length < 2 || args.length > 4)
+        {
+            System.out.println("Usage: generate_workload <shape> <size>[KB|MB|GB] [depth] [output_file]");
+            System.out.println("Shapes: " + String.join(", ", SHAPES));
+            System.exit(64);
+        }
+
+        String shape = args[0];
+        long bytes = parseSize(args[1]);
+        int depth = args.length > 2 ? Integer.parseInt(args[2]) : 16;
+        Writer out = args.length > 3
+            ? Files.newBufferedWriter(Paths.get(args[3]), StandardCharsets.UTF_8)
+            : new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+        try
+        {
+            generate(shape, bytes, depth, out);
+        } catch (IllegalArgumentException error) {
+            System.err.println(error.getMessage());
+            System.exit(64);
+        } finally {
+            out.close();
+        }
+    }
+
+    public static String generate(String shape, int bytes, int depth)
+    {
+        StringWriter out = new StringWriter(bytes + 256);
+        try
+        {
+            generate(shape, bytes, depth, out);
+        } catch (IOException error) {
+            throw new AssertionError(error);
+        }
+        return out.toString();
+    }
+
+    // Writes at least bytes characters of the given shape and returns how
+    // many were written. Output is the same for the same arguments.
+    public static long generate(String shape, long bytes, int depth, Writer writer) throws IOException
+    {
+        int kind = indexOf(shape);
+        if (kind < 0) throw new IllegalArgumentException("Unknown shape '" + shape + "'.");
+        if (depth < 1) throw new IllegalArgumentException("Depth must be at least 1.");
+
+        CountingWriter out = new CountingWriter(writer);
+        out.write("var total = 0;\n");
+        String footer = "print total;\n";
+        // Units are numbered per shape so mixed programs chain classes too.
+        int[] units = new int[SHAPES.length - 1];
+        for (int turn = 0; out.count + footer.length() < bytes; turn++)
+        {
+            int next = kind == SHAPES.length - 1 ? turn % units.length : kind;
+            int unit = units[next]++;
+            switch (next)
+            {
+                case 0: nesting(out, unit, depth); break;
+                case 1: classes(out, unit, depth); break;
+                case 2: functions(out, unit, depth); break;
+                case 3: literals(out, unit, depth); break;
+                case 4: closures(out, unit, depth); break;
+            }
+        }
+        out.write(footer);
+        out.flush();
+        return out.count;
+    }
+
+    public static long parseSize(String size)
+    {
+        String upper = size.toUpperCase();
+        long scale = 1;
+        if (upper.endsWith("KB")) scale = 1L << 10;
+        else if (upper.endsWith("MB")) scale = 1L << 20;
+        else if (upper.endsWith("GB")) scale = 1L << 30;
+        String digits = scale == 1 ? upper : upper.substring(0, upper.length() - 2);
+        return Long.parseLong(digits.trim()) * scale;
+    }
+
+    private static int indexOf(String shape)
+    {
+        for (int i = 0; i < SHAPES.length; i++)
+        {
+            if (SHAPES[i].equals(shape)) return i;
+        }
+        return -1;
+    }
+
+    // fun nest0(n) { var a0 = n; if (a0 > 0) { var a1 = a0 + a0; for ... } }
+    private static void nesting(Writer out, int unit, int depth) throws IOException
+    {
+        out.write("fun nest" + unit + "(n) {\n");
+        out.write("  var a0 = n;\n");
+        for (int d = 1; d < depth; d++)
+        {
+            indent(out, d);
+            switch (d % 3)
+            {
+                case 0: out.write("{\n"); break;
+                case 1: out.write("if (a" + (d - 1) + " > 0) {\n"); break;
+                case 2: out.write("for (var i" + d + " = 0; i" + d + " < 1; i" + d + " = i" + d + " + 1) {\n"); break;
+            }
+            indent(out, d + 1);
+            out.write("var a" + d + " = a" + (d - 1) + " + a0;\n");
+        }
+        indent(out, depth);
+        out.write("total = total + a" + (depth - 1) + ";\n");
+        for (int d = depth - 1; d >= 1; d--)
+        {
+            indent(out, d);
+            out.write("}\n");
+        }
+        out.write("  return a0;\n");
+        out.write("}\n");
+        out.write("nest" + unit + "(" + (unit % 7 + 1) + ");\n");
+    }
+
+    // Each class mixes in its own trait and extends the previous class of
+    // its chain, so method lookup walks up to depth superclasses.
+    private static void classes(Writer out, int unit, int depth) throws IOException
+    {
+        out.write("class Trait" + unit + " {\n");
+        out.write("  weight" + unit + "() { return " + (unit % 10) + "; }\n");
+        out.write("}\n");
+        out.write("class Node" + unit + " < ");
+        if (unit % depth != 0) out.write("Node" + (unit - 1) + ", ");
+        out.write("Trait" + unit + " {\n");
+        out.write("  init(x) { this.x = x; this.label = \"node " + unit + "\"; }\n");
+        out.write("  value() { return this.x + this.weight" + unit + "(); }\n");
+        out.write("  scaled(k) { return this.value() * k; }\n");
+        out.write("}\n");
+        out.write("var node" + unit + " = Node" + unit + "(" + unit + ");\n");
+        out.write("total = total + node" + unit + ".scaled(2) + node" + unit + ".weight"
+            + (unit - unit % depth) + "();\n");
+    }
+
+    private static void functions(Writer out, int unit, int depth) throws IOException
+    {
+        out.write("fun long" + unit + "(a, b) {\n");
+        out.write("  var sum = 0;\n");
+        for (int s = 0; s < depth * 4; s++)
+        {
+            switch (s % 4)
+            {
+                case 0: out.write("  var t" + s + " = a * " + (s + 1) + " - b;\n"); break;
+                case 1: out.write("  if (t" + (s - 1) + " > b) sum = sum + t" + (s - 1) + "; else sum = sum - 1;\n"); break;
+                case 2: out.write("  a = a + 1;\n"); break;
+                case 3: out.write("  sum = sum > 1000 ? sum / 2 : sum + a;\n"); break;
+            }
+        }
+        out.write("  return sum;\n");
+        out.write("}\n");
+        out.write("total = total + long" + unit + "(" + (unit % 13) + ", 3);\n");
+    }
+
+    private static void literals(Writer out, int unit, int depth) throws IOException
+    {
+        out.write("var table" + unit + " = [");
+        for (int e = 0; e < depth * 8; e++)
+        {
+            if (e > 0) out.write(e % 8 == 0 ? ",\n  " : ", ");
+            if (e % 4 == 3) out.write("\"entry " + unit + "." + e + "\"");
+            else out.write(Integer.toString((unit * 31 + e * 17) % 1000) + (e % 4 == 1 ? ".5" : ""));
+        }
+        out.write("];\n");
+        out.write("total = total + len(table" + unit + ") + table" + unit + "[0];\n");
+    }
+
+    // fun curry0(x0) { return fun (x1) { return fun (x2) { ... x0 + x1 + x2 ... }; }; }
+    private static void closures(Writer out, int unit, int depth) throws IOException
+    {
+        out.write("fun curry" + unit + "(x0) {\n");
+        out.write("  var count = 0;\n");
+        for (int d = 1; d < depth; d++)
+        {
+            indent(out, d);
+            out.write("return fun (x" + d + ") {\n");
+        }
+        indent(out, depth);
+        out.write("count = count + 1;\n");
+        indent(out, depth);
+        out.write("return count");
+        for (int d = 0; d < depth; d++) out.write(" + x" + d);
+        out.write(";\n");
+        for (int d = depth - 1; d >= 1; d--)
+        {
+            indent(out, d);
+            out.write("};\n");
+        }
+        out.write("}\n");
+        out.write("total = total + curry" + unit);
+        for (int d = 0; d < depth; d++) out.write("(" + (d + 1) + ")");
+        out.write(";\n");
+    }
+
+    private static void indent(Writer out, int level) throws IOException
+    {
+        for (int i = 0; i < level; i++) out.write("  ");
+    }
+
+    private static class CountingWriter extends FilterWriter
+    {
+        long count;
+
+        CountingWriter(Writer out)
+        {
+            super(out);
+        }
+
+        @Override
+        public void write(int c) throws IOException
+        {
+            out.write(c);
+            count++;
+        }
+
+        @Override
+        public void write(char[] buffer, int offset, int length) throws IOException
+        {
+            out.write(buffer, offset, length);
+            count += length;
+        }
+
+        @Override
+        public void write(String text, int offset, int length) throws IOException
+        {
+            out.write(text, offset, length);
+            count += length;
+        }
+    }
+}
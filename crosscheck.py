@@ -0,0 +1,246 @@
+# Runs a corpus of Lox programs through jlox, clox and any other
+# implementation, diffs their stdout, stderr and exit codes against the
+# first one, and records wall time, peak RSS and (where the implementation
+# reports it) bytes allocated in a JSON history file. Each run is checked
+# against the previous one in the history and against the fastest
+# implementation, so a slowdown is caught before it ships.
+#
+# Usage: python crosscheck.py [options] [program.lox | directory]...
+#
+#   --impl name=command   add an implementation; {file} is the script and
+#                         {alloc} a file it may write its allocation total
+#                         to. Defaults to jlox (classes in ./bin) and clox.
+#   --runs n              run each program n times, keep the fastest (3)
+#   --history file        JSON history to append to (crosscheck-history.json)
+#   --regression pct      flag a time or RSS increase over the previous run
+#                         above pct percent (10)
+#   --max-ratio r         flag an implementation more than r times slower
+#                         than the fastest one on a program (off)
+#   --timeout s           seconds before a run is killed (60)
+#
+# With no programs the Hello*.lox samples and the benchmark workloads are
+# used. Exits 1 if anything differs or regressed.
+import argparse
+import datetime
+import glob
+import hashlib
+import json
+import os
+import shlex
+import subprocess
+import sys
+import tempfile
+import time
+
+ROOT = os.path.dirname(os.path.abspath(__file__))
+CLOX = os.path.join(tempfile.gettempdir(), "clox-crosscheck")
+
+DEFAULT_IMPLS = [
+    ("jlox", "java -Djlox.allocationReport={alloc} -cp " + os.path.join(ROOT, "bin")
+             + " com.craftinginterpreters.lox.Lox {file}"),
+    ("clox", CLOX + " {file}"),
+]
+
+
+def build_clox():
+    sources = glob.glob(os.path.join(ROOT, "clox", "*.c"))
+    subprocess.check_call(["gcc", "-O2", "-DNDEBUG", "-o", CLOX] + sources + ["-lm"])
+
+
+def corpus(paths):
+    if not paths:
+        paths = sorted(glob.glob(os.path.join(ROOT, "Hello*.lox")))
+        paths.append(os.path.join(ROOT, "benchmark", "src", "main", "resources", "workloads"))
+    programs = []
+    for path in paths:
+        if os.path.isdir(path):
+            for directory, _, files in os.walk(path):
+                programs.extend(os.path.join(directory, f) for f in files if f.endswith(".lox"))
+        else:
+            programs.append(path)
+    return sorted(programs)
+
+
+def peak_rss_kb(pid):
+    # VmHWM of the process image after exec. ru_maxrss from wait4 can't be
+    # used alone because it also counts the forking parent (this script),
+    # so it is only the fallback for processes too quick to sample twice.
+    try:
+        if os.readlink("/proc/%d/exe" % pid) == os.path.realpath(sys.executable):
+            return None
+        with open("/proc/%d/status" % pid) as f:
+            for line in f:
+                if line.startswith("VmHWM:"):
+                    return int(line.split()[1])
+    except OSError:
+        pass
+    return None
+
+
+def digest(stream):
+    stream.seek(0)
+    sha = hashlib.sha256()
+    for chunk in iter(lambda: stream.read(1 << 16), b""):
+        sha.update(chunk)
+    return sha.hexdigest()
+
+
+def run_once(command, program, timeout):
+    alloc_fd, alloc_path = tempfile.mkstemp(suffix=".alloc")
+    os.close(alloc_fd)
+    os.unlink(alloc_path)
+    argv = [arg.replace("{file}", program).replace("{alloc}", alloc_path)
+            for arg in shlex.split(command)]
+
+    with tempfile.TemporaryFile() as out, tempfile.TemporaryFile() as err:
+        start = time.perf_counter()
+        process = subprocess.Popen(argv, stdout=out, stderr=err, stdin=subprocess.DEVNULL)
+        deadline = start + timeout
+        samples = []
+        while True:
+            sample = peak_rss_kb(process.pid)
+            if sample:
+                samples.append(sample)
+            pid, status, usage = os.wait4(process.pid, os.WNOHANG)
+            if pid:
+                break
+            if time.perf_counter() > deadline:
+                process.kill()
+                pid, status, usage = os.wait4(process.pid, 0)
+                break
+            time.sleep(0.001)
+        wall = time.perf_counter() - start
+
+        result = {
+            # Outputs are compared by digest so huge outputs stay on disk.
+            "stdout": digest(out),
+            "stderr": digest(err),
+            "exit": os.waitstatus_to_exitcode(status),
+            "wall_ms": round(wall * 1000, 3),
+            # ru_maxrss is in kilobytes on Linux.
+            "rss_kb": max(samples) if len(samples) > 1 else usage.ru_maxrss,
+            "alloc_bytes": None,
+        }
+
+    if os.path.exists(alloc_path):
+        with open(alloc_path) as f:
+            result["alloc_bytes"] = int(f.read().strip() or 0)
+        os.unlink(alloc_path)
+    return result
+
+
+def measure(command, program, runs, timeout):
+    best = None
+    for _ in range(runs):
+        result = run_once(command, program, timeout)
+        if best is None or result["wall_ms"] < best["wall_ms"]:
+            best = result
+    return best
+
+
+def differences(reference, other):
+    found = []
+    for stream in ("stdout", "stderr", "exit"):
+        if reference[stream] != other[stream]:
+            found.append(stream)
+    return found
+
+
+def git_commit():
+    try:
+        return subprocess.check_output(["git", "rev-parse", "--short", "HEAD"], cwd=ROOT,
+                                       stderr=subprocess.DEVNULL).decode().strip()
+    except (OSError, subprocess.CalledProcessError):
+        return None
+
+
+def load_history(path):
+    if not os.path.exists(path):
+        return []
+    with open(path) as f:
+        return json.load(f)
+
+
+def regressions(previous, current, mismatched, threshold, max_ratio):
+    found = []
+    for program, impls in current.items():
+        for name, result in impls.items():
+            before = previous.get(program, {}).get(name) if previous else None
+            if before:
+                for metric in ("wall_ms", "rss_kb", "alloc_bytes"):
+                    old, new = before.get(metric), result.get(metric)
+                    if old and new and new > old * (1 + threshold / 100.0):
+                        found.append("%s %s: %s %s -> %s (+%.0f%%)"
+                                     % (name, program, metric, old, new, (new / old - 1) * 100))
+        # Speed only means something between implementations that agree.
+        agreeing = {name: result for name, result in impls.items()
+                    if (program, name) not in mismatched}
+        if max_ratio and len(agreeing) > 1:
+            fastest = min(r["wall_ms"] for r in agreeing.values())
+            for name, result in agreeing.items():
+                if fastest and result["wall_ms"] > fastest * max_ratio:
+                    found.append("%s %s: %.1fx slower than the fastest implementation"
+                                 % (name, program, result["wall_ms"] / fastest))
+    return found
+
+
+def main():
+    parser = argparse.ArgumentParser(description="Compare Lox implementations.")
+    parser.add_argument("programs", nargs="*")
+    parser.add_argument("--impl", action="append", default=[])
+    parser.add_argument("--runs", type=int, default=3)
+    parser.add_argument("--history", default=os.path.join(ROOT, "crosscheck-history.json"))
+    parser.add_argument("--regression", type=float, default=10.0)
+    parser.add_argument("--max-ratio", type=float, default=0.0)
+    parser.add_argument("--timeout", type=float, default=60.0)
+    args = parser.parse_args()
+
+    impls = [tuple(spec.split("=", 1)) for spec in args.impl] or DEFAULT_IMPLS
+    if any(command.startswith(CLOX) for _, command in impls):
+        build_clox()
+
+    results = {}
+    mismatches = []
+    mismatched = set()
+    for program in corpus(args.programs):
+        name = os.path.relpath(program, ROOT)
+        results[name] = {}
+        reference = None
+        for impl, command in impls:
+            result = measure(command, program, args.runs, args.timeout)
+            if reference is None:
+                reference = result
+            else:
+                streams = differences(reference, result)
+                if streams:
+                    mismatched.add((name, impl))
+                    mismatches.append("%s %s: differs from %s in %s"
+                                      % (impl, name, impls[0][0], ", ".join(streams)))
+            print("%-50s %-6s exit %3d %10.1f ms %8d KB %14s B"
+                  % (name, impl, result["exit"], result["wall_ms"], result["rss_kb"],
+                     result["alloc_bytes"] if result["alloc_bytes"] is not None else "-"))
+            results[name][impl] = {key: result[key]
+                                   for key in ("exit", "wall_ms", "rss_kb", "alloc_bytes")}
+
+    history = load_history(args.history)
+    previous = history[-1]["results"] if history else None
+    slower = regressions(previous, results, mismatched, args.regression, args.max_ratio)
+
+    history.append({
+        "time": datetime.datetime.now(datetime.timezone.utc).isoformat(timespec="seconds"),
+        "commit": git_commit(),
+        "implementations": dict(impls),
+        "results": results,
+    })
+    with open(args.history, "w") as f:
+        json.dump(history, f, indent=1)
+
+    for line in mismatches + slower:
+        print(line, file=sys.stderr)
+    print("%d programs, %d mismatches, %d regressions"
+          % (len(results), len(mismatches), len(slower)), file=sys.stderr)
+    return 1 if mismatches or slower else 0
+
+
+if __name__ == "__main__":
+    sys.exit(main())
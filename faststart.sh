@@ -0,0 +1,43 @@
+#!/bin/sh
+# Fast start for jlox: a class data sharing archive of the interpreter's
+# classes plus a scanned, parsed and resolved image of one script.
+#
+#   faststart.sh build script.lox   writes jlox.jar, jlox.jsa and script.loxi
+#   faststart.sh run script.loxi    runs the image with the archive
+#   faststart.sh bench script.lox   compares time-to-first-statement
+#
+# Class data sharing only archives classes loaded from jar files, so the
+# compiled classes in CLASSES (default ./bin) are packed into JAR first.
+CLASSES=${CLASSES:-bin}
+JAR=${JAR:-jlox.jar}
+ARCHIVE=${ARCHIVE:-jlox.jsa}
+MAIN=com.craftinginterpreters.lox.Lox
+
+# Epoch milliseconds. date's %N is a GNU extension (BSD and macOS date
+# print a literal N), so ask python3 instead.
+now_ms() {
+  python3 -c 'import time; print(int(time.time() * 1000))'
+}
+
+case "$1" in
+  build)
+    jar cf "$JAR" -C "$CLASSES" . || exit $?
+    java -XX:ArchiveClassesAtExit="$ARCHIVE" -cp "$JAR" $MAIN --dump-image "$2" "${2}i"
+    ;;
+  run)
+    java -XX:SharedArchiveFile="$ARCHIVE" -cp "$JAR" $MAIN --run-image "$2"
+    ;;
+  bench)
+    "$0" build "$2" > /dev/null 2>&1 || exit $?
+    for i in 1 2 3 4 5; do
+      printf 'source    '
+      java -Djlox.launchTime="$(now_ms)" -cp "$JAR" $MAIN "$2" 2>&1 > /dev/null | grep time-to-first-statement
+      printf 'faststart '
+      java -Djlox.launchTime="$(now_ms)" -XX:SharedArchiveFile="$ARCHIVE" -cp "$JAR" $MAIN --run-image "${2}i" 2>&1 > /dev/null | grep time-to-first-statement
+    done
+    ;;
+  *)
+    echo "Usage: faststart.sh build script.lox | run image | bench script.lox"
+    exit 64
+    ;;
+esac
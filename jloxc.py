@@ -0,0 +1,51 @@
+# Thin client for "jlox --daemon": sends one script over the daemon's Unix
+# domain socket and relays its output and exit status.
+#
+# Usage: python jloxc.py script.lox
+#        python jloxc.py - < script.lox
+# The socket defaults to jlox.sock in the temporary directory, set
+# JLOX_SOCKET to use another one.
+import os
+import socket
+import struct
+import sys
+import tempfile
+
+
+def read_exact(sock, count):
+    data = b""
+    while len(data) < count:
+        chunk = sock.recv(count - len(data))
+        if not chunk:
+            raise EOFError("daemon closed the connection")
+        data += chunk
+    return data
+
+
+def main():
+    if len(sys.argv) != 2:
+        print("Usage: jloxc.py script | -", file=sys.stderr)
+        return 64
+
+    if sys.argv[1] == "-":
+        kind, body = b"S", sys.stdin.buffer.read()
+    else:
+        kind, body = b"P", os.path.abspath(sys.argv[1]).encode()
+
+    path = os.environ.get("JLOX_SOCKET", os.path.join(tempfile.gettempdir(), "jlox.sock"))
+    sock = socket.socket(socket.AF_UNIX, socket.SOCK_STREAM)
+    sock.connect(path)
+    sock.sendall(kind + struct.pack(">i", len(body)) + body)
+
+    while True:
+        kind, length = struct.unpack(">ci", read_exact(sock, 5))
+        if kind == b"X":
+            return length
+        data = read_exact(sock, length)
+        stream = sys.stdout if kind == b"O" else sys.stderr
+        stream.buffer.write(data)
+        stream.flush()
+
+
+if __name__ == "__main__":
+    sys.exit(main())